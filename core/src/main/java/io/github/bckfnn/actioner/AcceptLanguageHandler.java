@@ -16,11 +16,12 @@
 package io.github.bckfnn.actioner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+
+import com.codahale.metrics.MetricRegistry;
 
 import io.vertx.core.Handler;
 import io.vertx.ext.web.RoutingContext;
@@ -29,21 +30,53 @@ import io.vertx.ext.web.RoutingContext;
  * A handler that reads the accept-language heaeder and set two routing context variabled: locale and locales.
  */
 public class AcceptLanguageHandler implements Handler<RoutingContext> {
-    private LruCache cache = null;
+    /**
+     * Key of the negotiated locale in the routing context, set in addition to the configurable locale name.
+     */
+    public static final String LOCALE = AcceptLanguageHandler.class.getName() + ".locale";
+
+    /**
+     * Parsed header values, shared by the handlers of all verticles.
+     */
+    private static final ClockCache<String, List<Locale>> shared = new ClockCache<>(1024);
+
+    /**
+     * Locale instances by language tag.
+     */
+    private static final ClockCache<String, Locale> interned = new ClockCache<>(1024);
+
+    private ClockCache<String, List<Locale>> cache = null;
     private String localesName = "locales";
     private String localeName = "locale";
     private Locale defaultLocale = Locale.ENGLISH;
+    private LocaleNegotiator negotiator = null;
 
     /**
      * Constructor.
-     * @param cache true if the parsed values should be cached.
+     * @param cache true if the parsed values should be cached in the shared cache.
      */
     public AcceptLanguageHandler(boolean cache) {
         if (cache) {
-            this.cache = new LruCache(1024);
+            this.cache = shared;
         }
     }
 
+    /**
+     * Constructor.
+     * @param cache the cache of parsed values.
+     */
+    public AcceptLanguageHandler(ClockCache<String, List<Locale>> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Register the size and hit ratio of the shared cache.
+     * @param registry the metrics registry.
+     */
+    public static void registerMetrics(MetricRegistry registry) {
+        shared.registerMetrics(registry, "acceptLanguage.cache");
+    }
+
     /**
      * Set the name of the request variable where the list of locales will be stored.
      * Default to <code>"locales"</code>.
@@ -76,95 +109,149 @@ public class AcceptLanguageHandler implements Handler<RoutingContext> {
         return this;
     }
 
+    /**
+     * Set the locales that the application has translations for. The "locale" variable is then negotiated
+     * against these locales and always hold one of them.
+     * @param supportedLocales the supported locales in order of preference, or an empty list to disable negotiation.
+     * @return this, for chaining.
+     */
+    public AcceptLanguageHandler supportedLocales(List<Locale> supportedLocales) {
+        this.negotiator = supportedLocales.isEmpty() ? null : new LocaleNegotiator(supportedLocales);
+        return this;
+    }
+
     @Override
     public void handle(RoutingContext ctx) {
         String languages = ctx.request().getHeader("accept-language");
         List<Locale> locales = null;
-        if (cache != null) {
+        if (languages == null) {
+            locales = Collections.emptyList();
+        } else if (cache != null) {
             locales = cache.get(languages);
             if (locales == null) {
-                locales = getLocales(languages);
-                cache.put(languages, locales);
+                locales = cache.put(languages, Collections.unmodifiableList(getLocales(languages)));
             }
         } else {
-            locales = getLocales(languages);
+            locales = Collections.unmodifiableList(getLocales(languages));
         }
         ctx.put(localesName, locales);
-        if (locales.size() > 0) {
-            ctx.put(localeName, locales.get(0));
+        Locale locale;
+        if (negotiator != null) {
+            locale = negotiator.lookup(locales, defaultLocale);
+        } else if (locales.size() > 0) {
+            locale = locales.get(0);
         } else {
-            ctx.put(localeName, defaultLocale);
+            locale = defaultLocale;
         }
+        ctx.put(localeName, locale);
+        ctx.put(LOCALE, locale);
         ctx.next();
     }
 
     /**
-     * Parse the Accept-Language HTTP header.
+     * Parse the Accept-Language HTTP header. Ranges with <code>q=0</code> and the <code>*</code> range are left out,
+     * and a language that is repeated is kept with its highest q-value.
      * @param languages the header value.
-     * @return sorted list of Locale.
+     * @return list of Locale, sorted by q-value.
      */
     public static List<Locale> getLocales(String languages) {
-        List<LangQ> list = new ArrayList<>();
+        List<Locale> ret = new ArrayList<>();
         if (languages == null) {
-            return new ArrayList<Locale>();
+            return ret;
         }
-        for (String str : languages.split(",")) {
-            String[] arr = str.trim().replace("-", "_").split(";");
-            // Parse the q-value
-            Double q = 1.0D;
-            for (String s : arr) {
-                s = s.trim();
-                if (s.startsWith("q=")) {
-                    try {
-                        q = Double.parseDouble(s.substring(2).trim());
-                    } catch (NumberFormatException e) {
-                        // ignore the q value.
-                    }
-                    break;
+        int[] qs = new int[4];
+        int len = languages.length();
+        int i = 0;
+        while (i < len) {
+            char c = languages.charAt(i);
+            if (c == ',' || c == ' ' || c == '\t') {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < len && isTagChar(languages.charAt(i))) {
+                i++;
+            }
+            int end = i;
+            int q = 1000;
+            for (; i < len && (c = languages.charAt(i)) != ','; i++) {
+                if ((c == 'q' || c == 'Q') && i + 1 < len && languages.charAt(i + 1) == '=') {
+                    q = parseQ(languages, i + 2, len, q);
                 }
             }
-            list.add(new LangQ(arr[0], q));
-        }
-        Collections.sort(list);
-        List<Locale> ret = new ArrayList<>();
-        for (LangQ lang : list) {
-            ret.add(lang.getLocale());
+            if (end == start || q == 0 || (end - start == 1 && languages.charAt(start) == '*')) {
+                continue;
+            }
+            Locale locale = locale(languages.substring(start, end));
+            if (locale == null) {
+                continue;
+            }
+            int dup = ret.indexOf(locale);
+            if (dup >= 0) {
+                if (qs[dup] >= q) {
+                    continue;
+                }
+                ret.remove(dup);
+                System.arraycopy(qs, dup + 1, qs, dup, ret.size() - dup);
+            }
+            // Insertion sort, stable for equal q-values.
+            int n = ret.size();
+            if (n == qs.length) {
+                qs = Arrays.copyOf(qs, n * 2);
+            }
+            int j = n;
+            while (j > 0 && qs[j - 1] < q) {
+                qs[j] = qs[j - 1];
+                j--;
+            }
+            qs[j] = q;
+            ret.add(j, locale);
         }
         return ret;
     }
 
-    static class LangQ implements Comparable<LangQ> {
-        public String lang;
-        public double q;
-        public LangQ(String lang, double q) {
-            this.lang = lang;
-            this.q = q;
+    /**
+     * Parse a q-value into thousandths.
+     * @return the q-value or the default value when the q-value is malformed.
+     */
+    private static int parseQ(String s, int i, int len, int dflt) {
+        if (i >= len) {
+            return dflt;
         }
-        public Locale getLocale() {
-            // Parse the locale
-            String[] l = lang.split("_");
-            switch(l.length) {
-            case 2: return new Locale(l[0], l[1]);
-            case 3: return new Locale(l[0], l[1], l[2]);
-            default: return new Locale(l[0]);
-            }
+        char c = s.charAt(i);
+        int q = 0;
+        if (c == '0' || c == '1') {
+            q = (c - '0') * 1000;
+            i++;
+        } else if (c != '.') {
+            return dflt;
         }
-        @Override
-        public int compareTo(LangQ o) {
-            return (int) Math.signum(o.q - this.q);
+        if (i < len && s.charAt(i) == '.') {
+            i++;
+            for (int scale = 100; scale > 0 && i < len && (c = s.charAt(i)) >= '0' && c <= '9'; scale /= 10, i++) {
+                q += (c - '0') * scale;
+            }
         }
+        return Math.min(q, 1000);
     }
 
-    private class LruCache extends LinkedHashMap<String, List<Locale>> {
-        private static final long serialVersionUID = 1L;
-        private final int maxEntries;
-        public LruCache(final int maxEntries) {
-            super(maxEntries + 1, 1.0f, true);
-            this.maxEntries = maxEntries;
-        }
-        @Override
-        protected boolean removeEldestEntry(final Map.Entry<String, List<Locale>> eldest) {
-            return super.size() > maxEntries;
+    private static boolean isTagChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '*';
+    }
+
+    /**
+     * Return the interned locale of the language tag.
+     * @return the locale or null if the tag is not well-formed.
+     */
+    private static Locale locale(String tag) {
+        Locale locale = interned.get(tag);
+        if (locale == null) {
+            Locale l = Locale.forLanguageTag(tag.replace('_', '-'));
+            if (l.getLanguage().isEmpty()) {
+                return null;
+            }
+            locale = interned.put(tag, l);
         }
+        return locale;
     }
-}
\ No newline at end of file
+}
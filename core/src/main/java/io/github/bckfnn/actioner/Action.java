@@ -15,12 +15,11 @@
  */
 package io.github.bckfnn.actioner;
 
-import java.net.URLEncoder;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +40,7 @@ import io.vertx.ext.web.Session;
  */
 public class Action implements Handler<RoutingContext> {
     private static final Logger log = LoggerFactory.getLogger(Action.class);
+    private static final String[] NO_ARGS = new String[0];
 
     private String url;
     private int order;
@@ -49,7 +49,10 @@ public class Action implements Handler<RoutingContext> {
     private String name;
     private String permission;
     private List<String> groups;
+    private PathTemplate template;
     private String mainMenu;
+    private boolean cached;
+    private ActionMetrics metrics;
 
     private Invoker invoker;
 
@@ -68,8 +71,13 @@ public class Action implements Handler<RoutingContext> {
         this.url = contextRoot + get.url();
         this.permission = get.permission();
         this.order = get.order();
-        init(router.get(url));
-        init(router.head(url));
+        this.cached = get.cached();
+        if (router != null) {
+            init(router.get(url));
+            init(router.head(url));
+        } else {
+            init(null);
+        }
     }
 
     public void decorate(Router router, Class<?> actionClass, String name, String contextRoot, Post post) {
@@ -78,24 +86,30 @@ public class Action implements Handler<RoutingContext> {
         this.url = contextRoot + post.url();
         this.permission = post.permission();
         this.order = post.order();
-        init(router.post(url));
+        this.cached = false;
+        init(router != null ? router.post(url) : null);
     }
 
     private void init(Route route) {
-        this.groups = findGroups(url);
+        if (template == null || !template.template().equals(url)) {
+            this.template = new PathTemplate(url);
+            this.groups = template.names();
+        }
         if (Post.defaultPermission.equals(this.permission) || Get.defaultPermission.equals(this.permission)) {
             permission = name;
         }
 
-        if (order != -1) {
-            route.order(order);
-        }
         MainMenu mainMenu = actionClass.getAnnotation(MainMenu.class);
         if (mainMenu != null) {
             this.mainMenu = mainMenu.name();
         }
 
-        route.handler(this);
+        if (route != null) {
+            if (order != -1) {
+                route.order(order);
+            }
+            route.handler(this);
+        }
     }
 
     public String url() {
@@ -114,6 +128,57 @@ public class Action implements Handler<RoutingContext> {
         return groups;
     }
 
+    public PathTemplate template() {
+        return template;
+    }
+
+    /**
+     * Set the metrics of the action, or null when the action should not be measured.
+     * @param metrics the metrics.
+     */
+    public void setMetrics(ActionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ActionMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return true if the responses can be revalidated, see {@link Get#cached()}.
+     */
+    public boolean cached() {
+        return cached;
+    }
+
+    /**
+     * Set the etag of the response from a version key, and respond with 304 if the client already has
+     * that version. Call it before rendering, the action is done when it returns true.
+     * The etag also depends on the action, the locale and the user, since they change the page.
+     * @param ctx the routing context.
+     * @param version the version of the data shown by the page, f.ex. a last modified timestamp.
+     * @return true if a 304 response was sent.
+     */
+    public boolean notModified(RoutingContext ctx, String version) {
+        StringBuilder sb = new StringBuilder(name).append('|').append(version).append('|');
+        Locale locale = ctx.get(AcceptLanguageHandler.LOCALE);
+        if (locale != null) {
+            sb.append(locale.toLanguageTag());
+        }
+        sb.append('|');
+        if (ctx.user() != null) {
+            sb.append(ctx.user().principal().encode());
+        }
+        String etag = "\"" + StaticContent.hash(sb.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+        ctx.response().putHeader("ETag", etag);
+        String ifNoneMatch = ctx.request().headers().get("if-none-match");
+        if (ifNoneMatch != null && StaticContent.matchEtag(ifNoneMatch, etag)) {
+            ctx.response().setStatusCode(304).end();
+            return true;
+        }
+        return false;
+    }
+
     public int order() {
         return order;
     }
@@ -130,10 +195,20 @@ public class Action implements Handler<RoutingContext> {
         redirect(ctx, Utils.map());
     }
 
+    /**
+     * Build a link to the action.
+     * @param values the values of the url parameters, in the order of {@link #groups()}.
+     * @return the link.
+     */
+    public String link(String... values) {
+        return template.link(values);
+    }
+
     public void redirect(RoutingContext ctx,  Map<String, String> map) {
-        String url = url();
+        String[] values = new String[groups.size()];
         MultiMap requestMap = ctx.request().params();
-        for (String grp : groups()) {
+        for (int i = 0; i < values.length; i++) {
+            String grp = groups.get(i);
             String v = map.get(grp);
             if (v == null) {
                 v = requestMap.get(grp);
@@ -145,30 +220,19 @@ public class Action implements Handler<RoutingContext> {
             if (v == null) {
                 throw new RuntimeException("Missing url replacement group " + grp);
             }
-            String val = v;
-            url = url.replace(":" + grp, Utils.val(() -> URLEncoder.encode(val, "UTF-8")));
+            values[i] = v;
         }
         ctx.response().setStatusCode(301);
-        ctx.response().putHeader("Location", url);
+        ctx.response().putHeader("Location", template.link(values));
         ctx.response().end();
     }
 
-    private List<String> findGroups(String input) {
-        Matcher m =  Pattern.compile(":([A-Za-z][A-Za-z0-9_]*)").matcher(input);
-
-        List<String> groups = new  ArrayList<>();
-        while (m.find()) {
-            String group = m.group().substring(1);
-            if (groups.contains(group)) {
-                throw new IllegalArgumentException("Cannot use identifier " + group + " more than once in pattern string");
-            }
-            groups.add(group);
-        }
-        return groups;
-    }
-
     @Override
     public void handle(RoutingContext ctx) {
+        ActionMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.start(ctx);
+        }
         if (Utils.isEmpty(permission)) {
             invoke(ctx);
             return;
@@ -201,6 +265,9 @@ public class Action implements Handler<RoutingContext> {
                 if (res.result()) {
                     invoke(ctx);
                 } else {
+                    if (metrics != null) {
+                        metrics.denied();
+                    }
                     ctx.fail(403);
                 }
             } else {
@@ -210,22 +277,34 @@ public class Action implements Handler<RoutingContext> {
     }
 
     private void invoke(RoutingContext ctx) {
+        RequestProfile.mark(ctx, "auth");
         ctx.put(Action.class.getName(), this);
         ctx.put("actionName", name);
 
-        ctx.response().putHeader("Cache-Control", "no-cache, no-store, must-revalidate");
-        ctx.response().putHeader("Pragma", "no-cache");
-        ctx.response().putHeader("Expires", "0");
-        try {
-            String[] args = new String[groups.size()];
-            for (int i = 0; i < groups.size(); i++) {
-                String v = ctx.request().params().get(groups.get(i));
-                if (v != null) {
-                    args[i] = v;
-                    ctx.request().params().set(groups.get(i), args[i]);
+        if (cached) {
+            ctx.response().putHeader("Cache-Control", "private, no-cache");
+        } else {
+            ctx.response().putHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+            ctx.response().putHeader("Pragma", "no-cache");
+            ctx.response().putHeader("Expires", "0");
+        }
+        String[] args = NO_ARGS;
+        if (groups.size() > 0) {
+            args = new String[groups.size()];
+            if (!template.match(ctx.normalisedPath(), args)) {
+                // The route was matched by other means, use the parameters found by the router.
+                log.warn("path {} does not match the template {} of {}, using the router parameters", ctx.normalisedPath(), template, name);
+                MultiMap params = ctx.request().params();
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = params.get(groups.get(i));
                 }
             }
+        }
+        try {
             invoker.invoke(ctx, args);
+        } catch (ParamException e) {
+            log.debug("bad parameter: {}", e.getMessage());
+            ctx.fail(400);
         } catch (Throwable t) {
             //t.printStackTrace();
             Utils.rethrow(t);
@@ -271,6 +350,68 @@ public class Action implements Handler<RoutingContext> {
         }
     }
 
+    public static interface I1 extends Invoker {
+        void handle(RoutingContext ctx, int a1) throws Exception;
+
+        @Override
+        default void invoke(RoutingContext ctx, String[] args) throws Exception {
+            handle(ctx, toInt(args[0]));
+        }
+    }
+
+    public static interface L1 extends Invoker {
+        void handle(RoutingContext ctx, long a1) throws Exception;
+
+        @Override
+        default void invoke(RoutingContext ctx, String[] args) throws Exception {
+            handle(ctx, toLong(args[0]));
+        }
+    }
+
+    public static interface U1 extends Invoker {
+        void handle(RoutingContext ctx, UUID a1) throws Exception;
+
+        @Override
+        default void invoke(RoutingContext ctx, String[] args) throws Exception {
+            handle(ctx, toUUID(args[0]));
+        }
+    }
+
+    /**
+     * Thrown when a path parameter can not be converted to the type of the handler. The request fails with 400.
+     */
+    public static class ParamException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ParamException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    static int toInt(String v) {
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new ParamException("not an int: " + v, e);
+        }
+    }
+
+    static long toLong(String v) {
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            throw new ParamException("not a long: " + v, e);
+        }
+    }
+
+    static UUID toUUID(String v) {
+        try {
+            return UUID.fromString(v);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new ParamException("not an uuid: " + v, e);
+        }
+    }
+
     public static Action A(A invoker) {
         return new Action(invoker);
     }
@@ -286,5 +427,31 @@ public class Action implements Handler<RoutingContext> {
     public static Action A(A3 invoker) {
         return new Action(invoker);
     }
-}
 
+    /**
+     * Create an action with an int path parameter.
+     * @param invoker the handler.
+     * @return the action.
+     */
+    public static Action I(I1 invoker) {
+        return new Action(invoker);
+    }
+
+    /**
+     * Create an action with a long path parameter.
+     * @param invoker the handler.
+     * @return the action.
+     */
+    public static Action L(L1 invoker) {
+        return new Action(invoker);
+    }
+
+    /**
+     * Create an action with an UUID path parameter.
+     * @param invoker the handler.
+     * @return the action.
+     */
+    public static Action U(U1 invoker) {
+        return new Action(invoker);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * A single handler that dispatch to all the actions, instead of a vertx route per action.
+ * The actions are kept in a trie of path segments, where a segment is either a literal or a <code>:param</code>.
+ * When several actions match a path, the one with the lowest order wins, and then the first one added,
+ * like the vertx router. When no action match, the request is passed on with {@link RoutingContext#next()}.
+ */
+public class ActionDispatcher implements Handler<RoutingContext> {
+    private final Node root = new Node();
+    private int seq = 0;
+
+    /**
+     * Return true if the url can be handled by the dispatcher. A parameter must take up a whole path segment,
+     * like <code>:id</code> but not <code>:id.json</code>, and wildcards are not supported.
+     * @param url the url template.
+     * @return true if the url can be added.
+     */
+    public static boolean supports(String url) {
+        if (!url.startsWith("/") || url.indexOf('*') >= 0) {
+            return false;
+        }
+        for (String segment : segments(url)) {
+            if (segment.indexOf(':') >= 0 && !PathTemplate.isParamSegment(segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add an action.
+     * @param action the decorated action.
+     * @param method the http method of the action. GET actions also handle HEAD.
+     */
+    public void add(Action action, HttpMethod method) {
+        Node node = root;
+        for (String segment : segments(action.url())) {
+            if (segment.startsWith(":")) {
+                if (node.param == null) {
+                    node.param = new Node();
+                }
+                node = node.param;
+            } else {
+                node = node.children.computeIfAbsent(segment, k -> new Node());
+            }
+        }
+        int n = seq++;
+        node.entries.add(new Entry(action, method, action.order() != -1 ? action.order() : n, n));
+    }
+
+    @Override
+    public void handle(RoutingContext ctx) {
+        String path = ctx.normalisedPath();
+        HttpMethod method = ctx.request().method();
+        Entry entry = find(root, path, 0, method, null);
+        if (entry == null) {
+            ctx.next();
+            return;
+        }
+        Action action = entry.action;
+        List<String> names = action.groups();
+        if (names.size() > 0) {
+            String[] args = new String[names.size()];
+            if (!action.template().match(path, args)) {
+                ctx.next();
+                return;
+            }
+            MultiMap params = ctx.request().params();
+            for (int i = 0; i < args.length; i++) {
+                params.set(names.get(i), args[i]);
+            }
+        }
+        action.handle(ctx);
+    }
+
+    private Entry find(Node node, String path, int pos, HttpMethod method, Entry best) {
+        int len = path.length();
+        if (pos >= len || (pos == len - 1 && path.charAt(pos) == '/')) {
+            for (Entry e : node.entries) {
+                if (e.accepts(method) && (best == null || e.before(best))) {
+                    best = e;
+                }
+            }
+            return best;
+        }
+        int start = pos + 1;
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = len;
+        }
+        if (!node.children.isEmpty()) {
+            Node child = node.children.get(path.substring(start, end));
+            if (child != null) {
+                best = find(child, path, end, method, best);
+            }
+        }
+        if (node.param != null && end > start) {
+            best = find(node.param, path, end, method, best);
+        }
+        return best;
+    }
+
+    private static List<String> segments(String url) {
+        List<String> ret = new ArrayList<>();
+        int pos = 1;
+        while (pos < url.length()) {
+            int end = url.indexOf('/', pos);
+            if (end < 0) {
+                end = url.length();
+            }
+            ret.add(url.substring(pos, end));
+            pos = end + 1;
+        }
+        return ret;
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Node param;
+        final List<Entry> entries = new ArrayList<>(1);
+    }
+
+    private static class Entry {
+        final Action action;
+        final HttpMethod method;
+        final int order;
+        final int seq;
+
+        Entry(Action action, HttpMethod method, int order, int seq) {
+            this.action = action;
+            this.method = method;
+            this.order = order;
+            this.seq = seq;
+        }
+
+        boolean accepts(HttpMethod m) {
+            return m == method || (m == HttpMethod.HEAD && method == HttpMethod.GET);
+        }
+
+        boolean before(Entry other) {
+            return order < other.order || (order == other.order && seq < other.seq);
+        }
+    }
+}
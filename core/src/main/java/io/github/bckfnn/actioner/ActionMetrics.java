@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * The metrics of an action, registered as <code>actioner.action.&lt;name&gt;.*</code>: the latency,
+ * the requests in flight, the responses by class and the requests denied by authorization.
+ * The metrics are taken from the registry by name, so all verticle instances update the same metrics.
+ */
+public class ActionMetrics {
+    private final Timer latency;
+    private final Counter inFlight;
+    private final Meter redirects;
+    private final Meter clientErrors;
+    private final Meter serverErrors;
+    private final Meter denied;
+
+    /**
+     * Constructor.
+     * @param registry the registry.
+     * @param name the name of the action.
+     */
+    public ActionMetrics(MetricRegistry registry, String name) {
+        String prefix = Metrics.PREFIX + "action." + name + ".";
+        this.latency = registry.timer(prefix + "latency");
+        this.inFlight = registry.counter(prefix + "inFlight");
+        this.redirects = registry.meter(prefix + "3xx");
+        this.clientErrors = registry.meter(prefix + "4xx");
+        this.serverErrors = registry.meter(prefix + "5xx");
+        this.denied = registry.meter(prefix + "denied");
+    }
+
+    /**
+     * Start measuring the request. The measurement ends when the response is done, or when the connection is
+     * closed before that. The close handler is set before the action is invoked, so an action that sets its own
+     * close handler replaces it, not the other way round.
+     * @param ctx the routing context.
+     */
+    public void start(RoutingContext ctx) {
+        long start = System.nanoTime();
+        HttpServerResponse response = ctx.response();
+        AtomicBoolean done = new AtomicBoolean();
+        inFlight.inc();
+        response.closeHandler(v -> {
+            if (done.compareAndSet(false, true)) {
+                inFlight.dec();
+            }
+        });
+        ctx.addBodyEndHandler(v -> {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            inFlight.dec();
+            latency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            int status = response.getStatusCode();
+            if (status >= 500) {
+                serverErrors.mark();
+            } else if (status >= 400) {
+                clientErrors.mark();
+            } else if (status >= 300) {
+                redirects.mark();
+            }
+        });
+    }
+
+    /**
+     * Count a request that was denied by authorization.
+     */
+    public void denied() {
+        denied.mark();
+    }
+}
@@ -20,6 +20,9 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import com.codahale.metrics.MetricRegistry;
+
+import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.Router;
 
 /**
@@ -27,6 +30,29 @@ import io.vertx.ext.web.Router;
  */
 public class ActionRouter {
     private Map<String, Action> routes = new LinkedHashMap<>();
+    private ActionDispatcher dispatcher;
+    private boolean trieDispatch = false;
+
+    /**
+     * Dispatch the actions from a single handler backed by a trie, instead of a vertx route per action.
+     * Actions with urls that the {@link ActionDispatcher} does not support still get their own route.
+     * @param trieDispatch true to use the trie dispatcher.
+     * @return this, for chaining.
+     */
+    public ActionRouter setTrieDispatch(boolean trieDispatch) {
+        this.trieDispatch = trieDispatch;
+        return this;
+    }
+
+    /**
+     * Measure all actions, see {@link ActionMetrics}.
+     * @param registry the registry.
+     */
+    public void registerMetrics(MetricRegistry registry) {
+        for (Action action : routes.values()) {
+            action.setMetrics(new ActionMetrics(registry, action.name()));
+        }
+    }
 
     public void add(Action action) {
         routes.put(action.name(), action);
@@ -51,11 +77,21 @@ public class ActionRouter {
                 Action action = (Action) f.get(null);
                 Get get = f.getAnnotation(Get.class);
                 if (get != null) {
-                    action.decorate(router, f.getDeclaringClass(), f.getName(), contextRoot, get);
+                    if (useDispatcher(contextRoot + get.url())) {
+                        action.decorate(null, f.getDeclaringClass(), f.getName(), contextRoot, get);
+                        dispatcher(router).add(action, HttpMethod.GET);
+                    } else {
+                        action.decorate(router, f.getDeclaringClass(), f.getName(), contextRoot, get);
+                    }
                 }
                 Post post = f.getAnnotation(Post.class);
                 if (post != null) {
-                    action.decorate(router, f.getDeclaringClass(), f.getName(), contextRoot, post);
+                    if (useDispatcher(contextRoot + post.url())) {
+                        action.decorate(null, f.getDeclaringClass(), f.getName(), contextRoot, post);
+                        dispatcher(router).add(action, HttpMethod.POST);
+                    } else {
+                        action.decorate(router, f.getDeclaringClass(), f.getName(), contextRoot, post);
+                    }
                 }
                 add(action);
             } catch (Exception e) {
@@ -63,4 +99,19 @@ public class ActionRouter {
             }
         });
     }
+
+    private boolean useDispatcher(String url) {
+        return trieDispatch && ActionDispatcher.supports(url);
+    }
+
+    /**
+     * Return the dispatcher, mounting it on the router the first time it is used.
+     */
+    private ActionDispatcher dispatcher(Router router) {
+        if (dispatcher == null) {
+            dispatcher = new ActionDispatcher();
+            router.route().handler(dispatcher);
+        }
+        return dispatcher;
+    }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.typesafe.config.Config;
+
+/**
+ * Build the asset bundles defined in <code>assets.conf</code>. A bundle is the concatenation of files from webjars
+ * and from the classpath, where relative urls in css files are rewritten to be relative to the source file.
+ * Used at runtime by the {@link AssetsHandler} and at build time by the actioner maven plugin.
+ */
+public class AssetBundler {
+    /**
+     * Classpath folder of the prebuild bundles.
+     */
+    public static final String FOLDER = "META-INF/assets/";
+
+    /**
+     * Manifest of prebuild bundles, maps <code>name.type</code> to the fingerprinted file name in {@link #FOLDER}.
+     */
+    public static final String MANIFEST = FOLDER + "manifest.properties";
+
+    private final Config assets;
+    private final ClassLoader classLoader;
+    private final WebjarRegistry webjars;
+
+    /**
+     * Constructor.
+     * @param assets the bundle definitions.
+     * @param classLoader the class loader of the source files.
+     * @param webjars the webjars on the classpath of the class loader.
+     */
+    public AssetBundler(Config assets, ClassLoader classLoader, WebjarRegistry webjars) {
+        this.assets = assets;
+        this.classLoader = classLoader;
+        this.webjars = webjars;
+    }
+
+    public boolean hasBundle(String target) {
+        return assets.hasPath(target);
+    }
+
+    /**
+     * @return the names of all bundles.
+     */
+    public Set<String> bundles() {
+        return assets.root().keySet();
+    }
+
+    /**
+     * Return the types, f.ex. css and js, that the bundle has files for.
+     * @param target the name of the bundle.
+     * @return the types.
+     */
+    public Set<String> types(String target) {
+        Set<String> types = new LinkedHashSet<>();
+        for (Config v : assets.getConfigList(target)) {
+            for (String key : v.root().keySet()) {
+                if (!key.equals("webjar") && !key.equals("public")) {
+                    types.add(key);
+                }
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Build a bundle.
+     * @param target the name of the bundle.
+     * @param type the type of files to include.
+     * @param raw true if the rewritten urls should be relative to the bundle.
+     * @param sources list where the urls of the source files are added.
+     * @return the content of the bundle.
+     * @throws IOException when a source file can not be read.
+     */
+    public byte[] make(String target, String type, boolean raw, List<URL> sources) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Config v : assets.getConfigList(target)) {
+            if (!v.hasPath(type)) {
+                continue;
+            }
+            if (v.hasPath("webjar")) {
+                String artifact = v.getString("webjar");
+                for (String path : v.getStringList(type)) {
+                    String file = webjar(artifact, path);
+                    add(out, "/META-INF/resources" + file, raw ? "." + file : file, type, sources);
+                }
+            } else if (v.hasPath("public")) {
+                for (String path : v.getStringList(type)) {
+                    add(out, path, raw ? "." + path : path, type, sources);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private void add(ByteArrayOutputStream out, String resource, String file, String type, List<URL> sources) throws IOException {
+        URL url = classLoader.getResource(resource.startsWith("/") ? resource.substring(1) : resource);
+        if (url == null) {
+            throw new FileNotFoundException(resource);
+        }
+        sources.add(url);
+        try (InputStream is = url.openStream()) {
+            if (type.equals("css")) {
+                CssUrlRewriter.rewrite(file, Utils.readAsBytes(is), out);
+            } else {
+                out.write(Utils.readAsBytes(is));
+            }
+        }
+        out.write('\r');
+        out.write('\n');
+    }
+
+    /**
+     * Return the url of a file in a webjar.
+     * @param artifact the artifact id of the webjar.
+     * @param file the file in the webjar.
+     * @return the url.
+     */
+    public String webjar(String artifact, String file) {
+        return "/webjars/" + webjars.path(artifact, file);
+    }
+
+    /**
+     * Rewrite the relative urls in the css.
+     * @param file the url of the css file.
+     * @param input the css.
+     * @return the rewritten css.
+     * @see CssUrlRewriter
+     */
+    public static String filterUrl(String file, String input) {
+        return new String(CssUrlRewriter.rewrite(file, input.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A conservative css minifier: removes comments (except <code>/*!</code> license comments) and
+     * collapses whitespace, without touching strings.
+     * @param css the css.
+     * @return the minified css.
+     */
+    public static String minifyCss(String css) {
+        StringBuilder sb = new StringBuilder(css.length());
+        int len = css.length();
+        boolean space = false;
+        for (int i = 0; i < len; i++) {
+            char c = css.charAt(i);
+            if (c == '/' && i + 1 < len && css.charAt(i + 1) == '*') {
+                int end = css.indexOf("*/", i + 2);
+                end = end < 0 ? len : end + 2;
+                if (i + 2 < len && css.charAt(i + 2) == '!') {
+                    sb.append(css, i, end).append('\n');
+                } else {
+                    space = true;
+                }
+                i = end - 1;
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                if (space) {
+                    appendSpace(sb);
+                    space = false;
+                }
+                int j = i + 1;
+                while (j < len && css.charAt(j) != c) {
+                    j += css.charAt(j) == '\\' ? 2 : 1;
+                }
+                j = Math.min(j + 1, len);
+                sb.append(css, i, j);
+                i = j - 1;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) {
+                if ("{};,>".indexOf(c) < 0) {
+                    appendSpace(sb);
+                }
+                space = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static void appendSpace(StringBuilder sb) {
+        if (sb.length() == 0) {
+            return;
+        }
+        char last = sb.charAt(sb.length() - 1);
+        if ("{};,>\n".indexOf(last) < 0) {
+            sb.append(' ');
+        }
+    }
+
+    /**
+     * @param data the content.
+     * @return the hex encoded content hash, the same as {@link StaticContent#hash()}.
+     */
+    public static String hash(byte[] data) {
+        return StaticContent.hash(data);
+    }
+
+    /**
+     * Insert the fingerprint of the hash in front of the extension of the name.
+     * @param name the name, f.ex. <code>standard.css</code>.
+     * @param hash the content hash.
+     * @return the fingerprinted name.
+     */
+    public static String fingerprinted(String name, String hash) {
+        int dot = name.lastIndexOf('.');
+        return name.substring(0, dot) + "." + hash.substring(0, StaticContent.FINGERPRINT_LENGTH) + name.substring(dot);
+    }
+}
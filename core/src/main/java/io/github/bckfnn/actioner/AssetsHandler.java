@@ -15,31 +15,28 @@
  */
 package io.github.bckfnn.actioner;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
 import java.net.URL;
-import java.text.DateFormat;
-import java.util.Arrays;
-import java.util.Date;
-import java.util.Enumeration;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.activation.MimetypesFileTypeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
 import io.vertx.core.Handler;
-import io.vertx.core.MultiMap;
-import io.vertx.core.buffer.Buffer;
-import io.vertx.core.http.HttpHeaders;
-import io.vertx.core.http.HttpServerRequest;
 import io.vertx.ext.web.RoutingContext;
 
 /**
@@ -48,11 +45,13 @@ import io.vertx.ext.web.RoutingContext;
 public class AssetsHandler implements Handler<RoutingContext> {
     public static final Logger log = LoggerFactory.getLogger(AssetsHandler.class);
 
-    private final DateFormat dateTimeFormatter = io.vertx.ext.web.impl.Utils.createRFC1123DateTimeFormatter();
-
-    private Date lastReboot = new Date(System.currentTimeMillis());
-    private String lastRebootStr = dateTimeFormatter.format(lastReboot);
-    Config assets = ConfigFactory.load("assets");
+    private final AssetBundler bundler = new AssetBundler(ConfigFactory.load("assets"), getClass().getClassLoader(), WebjarRegistry.getDefault());
+    private final Map<String, Bundle> bundles = new ConcurrentHashMap<>();
+    /**
+     * The types of each bundle in assets.conf. Only bundles that exist are added.
+     */
+    private final Map<String, Set<String>> types = new ConcurrentHashMap<>();
+    private volatile Properties manifest;
 
     /**
      * Default max age for cache headers
@@ -61,6 +60,9 @@ public class AssetsHandler implements Handler<RoutingContext> {
 
     private boolean cachingEnabled = true;
     private long maxAgeSeconds = DEFAULT_MAX_AGE_SECONDS; // One day
+    private boolean develop = false;
+    private Compressor compressor;
+    private boolean fingerprinting = false;
 
     @Override
     public void handle(RoutingContext ctx) {
@@ -69,142 +71,147 @@ public class AssetsHandler implements Handler<RoutingContext> {
         String prefix = ctx.currentRoute().getPath();
         path = path.substring(prefix.length());
 
+        String fingerprint = null;
+        Matcher m = StaticContent.matchFingerprinted(path);
+        if (m != null) {
+            path = m.group(1) + m.group(3);
+            fingerprint = m.group(2);
+        }
+
         int dot = path.indexOf('.');
+        if (dot < 0) {
+            ctx.next();
+            return;
+        }
         String artifact = path.substring(0, dot);
         String type = path.substring(dot + 1);
 
-        if (assets.hasPath(artifact)) {
-            byte[] data;
+        if (bundler.hasBundle(artifact) && types(artifact).contains(type)) {
+            StaticContent content;
             try {
-                data = make(ctx, artifact, type);
+                content = bundle(artifact, type, ctx.request().getParam("raw") != null);
             } catch (Exception e) {
                 ctx.fail(e);
                 return;
             }
 
-            MultiMap headers = ctx.response().headers();
-
-            headers.set(HttpHeaders.CONTENT_TYPE, MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(path));
+            String cacheControl = null;
             if (cachingEnabled) {
-                // We use cache-control and last-modified
-                // We *do not use* etags and expires (since they do the same thing - redundant)
-                headers.set("cache-control", "public, max-age=" + maxAgeSeconds);
-                headers.set("last-modified", lastRebootStr);
-            }
-
-            try {
-                if (cachingEnabled) {
-                    if (shouldUseCached(ctx.request())) {
-                        ctx.response().setStatusCode(304).end();
-                        return;
-                    }
-                }
-                ctx.response().end(Buffer.factory.buffer(data));
-            } catch (Exception e) {
-                Utils.rethrow(e);
+                cacheControl = content.fingerprint().equals(fingerprint) ? StaticContent.IMMUTABLE : "public, max-age=" + maxAgeSeconds;
             }
+            content.send(ctx, cacheControl);
         } else {
             ctx.next();
         }
     }
 
-    public byte[] make(RoutingContext ctx, String target, String type) throws Exception {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        System.out.println("target " + target + " " + type);
-        for (Config v : assets.getConfigList(target)) {
-            //System.out.println(v);
-            if (v.hasPath("webjar")) {
-                String artifact = v.getString("webjar");
-                if (v.hasPath(type)) {
-                    for (String path : v.getStringList(type)) {
-                        //System.out.println(webjar(artifact, path));
-                        String file = webjar(artifact, path);
-                        URL url = getClass().getResource("/META-INF/resources" + file);
-                        if (ctx.request().getParam("raw") != null) {
-                            file = "." + file;
-                        }
-
-                        if (type.equals("css")) {
-                            String input = Utils.readAsString(url.openStream(), "UTF-8");
-                            out.write(filterUrl(file, input).getBytes("UTF-8"));
-                        } else {
-                            byte[] b=Utils.readAsBytes(url.openStream());
-                            //System.out.println(webjar(artifact, path) + " " + b.length);
-                            out.write(b);
-                        }
-                        out.write('\r');
-                        out.write('\n');
-                    }
-                }
-            } else if (v.hasPath("public")) {
-                if (v.hasPath(type)) {
-                    for (String path : v.getStringList(type)) {
-                        //System.out.println(path);
-                        URL url = getClass().getResource(path);
-                        if (ctx.request().getParam("raw") != null) {
-                            path = "." + path;
-                        }
-                        if (type.equals("css")) {
-                            String input = Utils.readAsString(url.openStream(), "UTF-8");
-                            out.write(filterUrl(path, input).getBytes("UTF-8"));
-                        } else {
-                            byte[] b=Utils.readAsBytes(url.openStream());
-                            //System.out.println(path + " " + b.length);
-                            out.write(b);
-                            //Utils.copy(url.openStream(), out);
-                        }
-                        out.write('\r');
-                        out.write('\n');
-                    }
-                }
+    /**
+     * Return the bundle for the artifact and type, building it on first use.
+     * Outside develop mode, bundles prebuild by the actioner maven plugin are used when there is a manifest on the classpath.
+     * In develop mode the bundle is rebuild when one of its source files has changed.
+     * @param artifact the name of the bundle in assets.conf.
+     * @param type the type of the bundle, css or js.
+     * @param raw true if the relative urls should be made relative to the bundle.
+     * @return the bundle content.
+     * @throws Exception when the bundle can not be build.
+     */
+    public StaticContent bundle(String artifact, String type, boolean raw) throws Exception {
+        String key = artifact + "." + type + (raw ? "?raw" : "");
+        Bundle bundle = bundles.get(key);
+        if (bundle == null && !types(artifact).contains(type)) {
+            // Only known bundles are added to the map.
+            throw new IllegalArgumentException("Unknown bundle " + artifact + "." + type);
+        }
+        if (bundle == null && !develop && !raw) {
+            bundle = prebuilt(artifact, type);
+            if (bundle != null) {
+                bundles.put(key, bundle);
             }
         }
-        return out.toByteArray();
+        if (bundle == null || (develop && bundle.isStale())) {
+            List<URL> sources = new ArrayList<>();
+            byte[] data = make(artifact, type, raw, sources);
+            bundle = new Bundle(new StaticContent(data, MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(artifact + "." + type), System.currentTimeMillis(), compressor), sources);
+            bundles.put(key, bundle);
+        }
+        return bundle.content;
     }
 
-    public String filterUrl(String file, String input) {
-        //Pattern url = Pattern.compile("url\\(\\\"(.+?)\\\"\\)");
-        String s = "url\\([\"']?(.+?)[\"']?\\)";
-
-        Pattern url = Pattern.compile(s);
-        StringBuffer sb = new StringBuffer();
-        Matcher m = url.matcher(input);
-        while (m.find()) {
-            String v = m.group(1);
-            if (v.startsWith("data:") || v.startsWith("/")) {
-                m.appendReplacement(sb, "url(\"" + v + "\")");
-            } else {
-                //System.out.println("replace url " + m.group(1));
-                m.appendReplacement(sb, "url(\"" + file + "/../" + m.group(1) + "\")");
-            }
+    private Set<String> types(String artifact) {
+        return types.computeIfAbsent(artifact, bundler::types);
+    }
+
+    /**
+     * Return the name of the bundle, relative to the assets url. When fingerprinting is enabled the name
+     * include the content fingerprint, f.ex. <code>standard.0123456789ab.css</code>.
+     * @param artifact the name of the bundle in assets.conf.
+     * @param type the type of the bundle, css or js.
+     * @return the bundle name.
+     */
+    public String asset(String artifact, String type) {
+        String name = artifact + "." + type;
+        if (!fingerprinting) {
+            return name;
         }
-        m.appendTail(sb);
-        return sb.toString();
+        try {
+            return bundle(artifact, type, false).fingerprinted(name);
+        } catch (Exception e) {
+            throw Utils.rethrow(e);
+        }
+    }
+
+    public byte[] make(String target, String type, boolean raw, List<URL> sources) throws Exception {
+        log.debug("make bundle {} {}", target, type);
+        return bundler.make(target, type, raw, sources);
     }
 
-    static String[] folders = { "org.webjars", "org.webjars.npm", "org.webjars.bower"  };
+    public String filterUrl(String file, String input) {
+        return AssetBundler.filterUrl(file, input);
+    }
 
     public String webjar(String artifact, String file) {
-        try {
-            for (String folder : folders) {
-                String propFilename = "META-INF/maven/" + folder + "/" + artifact + "/pom.properties";
-                Enumeration<URL> urls = getClass().getClassLoader().getResources(propFilename);
-                if (!urls.hasMoreElements()) {
-                    continue;
-                }
-                URL url = urls.nextElement();
-                Properties props = new Properties();
+        return bundler.webjar(artifact, file);
+    }
+
+    /**
+     * Load a bundle that was build by the actioner maven plugin.
+     * @return the bundle or null if the bundle is not in the manifest.
+     */
+    private Bundle prebuilt(String artifact, String type) throws IOException {
+        Properties manifest = this.manifest;
+        if (manifest == null) {
+            manifest = new Properties();
+            URL url = getClass().getClassLoader().getResource(AssetBundler.MANIFEST);
+            if (url != null) {
                 try (InputStream is = url.openStream()) {
-                    props.load(is);
+                    manifest.load(is);
                 }
-                String version = props.getProperty("version");
-                return "/webjars/" + artifact + "/" + version + "/" + file;
+                log.info("using prebuild assets from {}", url);
             }
-        } catch (IOException e) {
-            throw Utils.rethrow(e);
+            this.manifest = manifest;
+        }
+        String file = manifest.getProperty(artifact + "." + type);
+        if (file == null) {
+            return null;
+        }
+        URL url = getClass().getClassLoader().getResource(AssetBundler.FOLDER + file);
+        URL gzUrl = getClass().getClassLoader().getResource(AssetBundler.FOLDER + file + ".gz");
+        if (url == null) {
+            return null;
+        }
+        byte[] data;
+        try (InputStream is = url.openStream()) {
+            data = Utils.readAsBytes(is);
         }
-        log.error("missing webjar artifact {} searched as {}", artifact, Arrays.asList(folders));
-        return "/webjars/" + artifact + "/v0/" + file;
+        byte[] gz = null;
+        if (gzUrl != null && compressor != null) {
+            try (InputStream is = gzUrl.openStream()) {
+                gz = Utils.readAsBytes(is);
+            }
+        }
+        long lastModified = lastModified(url);
+        String contentType = MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(artifact + "." + type);
+        return new Bundle(new StaticContent(data, gz, contentType, lastModified > 0 ? lastModified : System.currentTimeMillis(), false), Collections.emptyList());
     }
 
     public AssetsHandler setCachingEnabled(boolean enabled) {
@@ -213,15 +220,60 @@ public class AssetsHandler implements Handler<RoutingContext> {
     }
 
 
-    // return true if there are conditional headers present and they match what is in the entry
-    boolean shouldUseCached(HttpServerRequest request) throws Exception {
-        String ifModifiedSince = request.headers().get("if-modified-since");
-        if (ifModifiedSince == null) {
-            // Not a conditional request
+    public AssetsHandler setCompressor(Compressor compressor) {
+        this.compressor = compressor;
+        bundles.clear();
+        return this;
+    }
+
+    public AssetsHandler setFingerprinting(boolean fingerprinting) {
+        this.fingerprinting = fingerprinting;
+        return this;
+    }
+
+    public AssetsHandler setDevelop(boolean develop) {
+        this.develop = develop;
+        return this;
+    }
+
+    static long lastModified(URL url) {
+        try {
+            URLConnection conn = url.openConnection();
+            conn.setUseCaches(false);
+            long lastModified = conn.getLastModified();
+            if (conn instanceof JarURLConnection) {
+                ((JarURLConnection) conn).getJarFile().close();
+            }
+            return lastModified;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A build bundle with the source urls and their modification times.
+     */
+    static class Bundle {
+        final StaticContent content;
+        final List<URL> sources;
+        final long[] stamps;
+
+        Bundle(StaticContent content, List<URL> sources) {
+            this.content = content;
+            this.sources = sources;
+            this.stamps = new long[sources.size()];
+            for (int i = 0; i < stamps.length; i++) {
+                stamps[i] = lastModified(sources.get(i));
+            }
+        }
+
+        boolean isStale() {
+            for (int i = 0; i < stamps.length; i++) {
+                if (lastModified(sources.get(i)) != stamps[i]) {
+                    return true;
+                }
+            }
             return false;
         }
-        Date ifModifiedSinceDate = dateTimeFormatter.parse(ifModifiedSince);
-        boolean modifiedSince = lastReboot.getTime() > ifModifiedSinceDate.getTime();
-        return !modifiedSince;
     }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import io.vertx.core.Handler;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * A read stream that pause the source while the write queue of the destination is full, and resume it
+ * when the destination is drained. Used to render rows of data into a response without buffering the whole
+ * page when the client is slow.
+ * @param <T> the type of the items.
+ */
+public class BackpressureReadStream<T> implements ReadStream<T> {
+    private final ReadStream<T> source;
+    private final WriteStream<?> destination;
+    private boolean paused;
+    private boolean throttled;
+
+    /**
+     * Constructor.
+     * @param source the stream of items.
+     * @param destination the stream the items are rendered to.
+     */
+    public BackpressureReadStream(ReadStream<T> source, WriteStream<?> destination) {
+        this.source = source;
+        this.destination = destination;
+    }
+
+    @Override
+    public ReadStream<T> exceptionHandler(Handler<Throwable> handler) {
+        source.exceptionHandler(handler);
+        return this;
+    }
+
+    @Override
+    public ReadStream<T> handler(Handler<T> handler) {
+        if (handler == null) {
+            source.handler(null);
+            return this;
+        }
+        source.handler(item -> {
+            handler.handle(item);
+            if (!throttled && destination.writeQueueFull()) {
+                throttled = true;
+                source.pause();
+                destination.drainHandler(v -> {
+                    throttled = false;
+                    if (!paused) {
+                        source.resume();
+                    }
+                });
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public ReadStream<T> pause() {
+        paused = true;
+        source.pause();
+        return this;
+    }
+
+    @Override
+    public ReadStream<T> resume() {
+        paused = false;
+        if (!throttled) {
+            source.resume();
+        }
+        return this;
+    }
+
+    @Override
+    public ReadStream<T> endHandler(Handler<Void> endHandler) {
+        source.endHandler(endHandler);
+        return this;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+
+/**
+ * A bounded cache that can be shared between threads without locking.
+ * Lookups only read a concurrent map and set a reference bit. Eviction use the CLOCK algorithm: a hand sweeps
+ * over a ring of slots, clearing the reference bits, and the first entry that has not been referenced since
+ * the last sweep is replaced.
+ * The values should be immutable since they are handed out to all threads.
+ * @param <K> the key type.
+ * @param <V> the value type.
+ */
+public class ClockCache<K, V> {
+    private final Map<K, Entry<K, V>> map;
+    private final AtomicReferenceArray<Entry<K, V>> slots;
+    private final AtomicInteger hand = new AtomicInteger();
+    private Counter hits = new Counter();
+    private Counter misses = new Counter();
+
+    /**
+     * Constructor.
+     * @param capacity max number of entries in the cache.
+     * @throws IllegalArgumentException when the capacity is less than 1.
+     */
+    public ClockCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.map = new ConcurrentHashMap<>(capacity * 4 / 3 + 1);
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * @param key the key.
+     * @return the cached value or null.
+     */
+    public V get(K key) {
+        Entry<K, V> e = map.get(key);
+        if (e == null) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        if (!e.referenced) {
+            e.referenced = true;
+        }
+        return e.value;
+    }
+
+    /**
+     * Add the value unless another thread has already added a value for the key.
+     * @param key the key.
+     * @param value the value.
+     * @return the value that is in the cache.
+     */
+    public V put(K key, V value) {
+        Entry<K, V> e = new Entry<>(key, value);
+        Entry<K, V> prev = map.putIfAbsent(key, e);
+        if (prev != null) {
+            return prev.value;
+        }
+        for (;;) {
+            int i = Math.floorMod(hand.getAndIncrement(), slots.length());
+            Entry<K, V> old = slots.get(i);
+            if (old != null && old.referenced) {
+                old.referenced = false;
+                continue;
+            }
+            if (slots.compareAndSet(i, old, e)) {
+                if (old != null) {
+                    map.remove(old.key, old);
+                }
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Remove the entry. Its slot is reused by a later put.
+     * @param key the key.
+     */
+    public void remove(K key) {
+        map.remove(key);
+    }
+
+    /**
+     * @return the number of entries in the cache.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Register the size and the hit ratio of the cache. The hit and miss counters are shared with other caches
+     * that are registered with the same name.
+     * @param registry the metrics registry.
+     * @param name the name of the cache.
+     */
+    public void registerMetrics(MetricRegistry registry, String name) {
+        Metrics.register(registry, name + ".size", (Gauge<Integer>) this::size);
+        hits = Metrics.register(registry, name + ".hits", hits);
+        misses = Metrics.register(registry, name + ".misses", misses);
+        Metrics.register(registry, name + ".hitRatio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
+    }
+
+    private static class Entry<K, V> {
+        final K key;
+        final V value;
+        volatile boolean referenced;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
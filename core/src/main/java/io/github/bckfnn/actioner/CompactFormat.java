@@ -0,0 +1,327 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The compact binary format used by {@link CompactSessionCodec} and {@link DbUser}.
+ * Numbers are written as varints, and names are dictionary encoded against a fixed list of well-known names
+ * and the names already written in the same record.
+ */
+public class CompactFormat {
+    /**
+     * The well-known names. Names can only be added to the end, since the index is stored.
+     */
+    static final String[] DICTIONARY = {
+        "__vertx.userHolder",
+        "io.vertx.ext.web.handler.impl.UserHolder",
+        DbUser.class.getName(),
+        "username",
+        "groups",
+        "id",
+        "name",
+        "email",
+    };
+
+    private static final Map<String, Integer> CODES = new HashMap<>();
+    static {
+        for (int i = 0; i < DICTIONARY.length; i++) {
+            CODES.put(DICTIONARY[i], i);
+        }
+    }
+
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte STRING = 7;
+    private static final byte OBJECT = 8;
+    private static final byte ARRAY = 9;
+
+    /**
+     * Append values to a buffer.
+     */
+    public static class Writer {
+        private final Buffer buffer;
+        private Map<String, Integer> names;
+
+        /**
+         * Constructor.
+         * @param buffer the buffer to append to.
+         */
+        public Writer(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return the buffer.
+         */
+        public Buffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * Write a non-negative number in 7-bit groups, low group first.
+         * @param value the value.
+         * @return this.
+         */
+        public Writer varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                buffer.appendByte((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.appendByte((byte) value);
+            return this;
+        }
+
+        /**
+         * Write a signed number, zigzag encoded so that small negative numbers are also short.
+         * @param value the value.
+         * @return this.
+         */
+        public Writer zigzag(long value) {
+            return varint((value << 1) ^ (value >> 63));
+        }
+
+        public Writer bytes(byte[] value) {
+            varint(value.length);
+            buffer.appendBytes(value);
+            return this;
+        }
+
+        public Writer string(String value) {
+            return bytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Write a name as the index of a well-known name or an earlier name in the record, or else
+         * as a string that later occurrences refer to.
+         * @param name the name.
+         * @return this.
+         */
+        public Writer name(String name) {
+            Integer code = CODES.get(name);
+            if (code == null && names != null) {
+                code = names.get(name);
+            }
+            if (code != null) {
+                return varint(code + 1);
+            }
+            if (names == null) {
+                names = new HashMap<>();
+            }
+            names.put(name, DICTIONARY.length + names.size());
+            buffer.appendByte((byte) 0);
+            return string(name);
+        }
+
+        /**
+         * Write a json value.
+         * @param value a json object, array, string, number, boolean or null.
+         * @return this.
+         */
+        public Writer json(Object value) {
+            if (value == null) {
+                buffer.appendByte(NULL);
+            } else if (value instanceof Boolean) {
+                buffer.appendByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                buffer.appendByte(INT);
+                zigzag(((Number) value).intValue());
+            } else if (value instanceof Long) {
+                buffer.appendByte(LONG);
+                zigzag((Long) value);
+            } else if (value instanceof Double) {
+                buffer.appendByte(DOUBLE).appendDouble((Double) value);
+            } else if (value instanceof Float) {
+                buffer.appendByte(FLOAT).appendFloat((Float) value);
+            } else if (value instanceof CharSequence) {
+                buffer.appendByte(STRING);
+                name(value.toString());
+            } else if (value instanceof JsonObject) {
+                JsonObject obj = (JsonObject) value;
+                buffer.appendByte(OBJECT);
+                varint(obj.size());
+                for (Map.Entry<String, Object> e : obj) {
+                    name(e.getKey());
+                    json(e.getValue());
+                }
+            } else if (value instanceof JsonArray) {
+                JsonArray arr = (JsonArray) value;
+                buffer.appendByte(ARRAY);
+                varint(arr.size());
+                for (Object v : arr) {
+                    json(v);
+                }
+            } else {
+                throw new IllegalStateException("Invalid json type " + value.getClass());
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Read values from a buffer.
+     */
+    public static class Reader {
+        private final Buffer buffer;
+        private int pos;
+        private List<String> names;
+
+        /**
+         * Constructor.
+         * @param buffer the buffer to read from.
+         * @param pos the position of the first value.
+         */
+        public Reader(Buffer buffer, int pos) {
+            this.buffer = buffer;
+            this.pos = pos;
+        }
+
+        public Buffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * @return the position after the last value read.
+         */
+        public int pos() {
+            return pos;
+        }
+
+        public Reader pos(int pos) {
+            this.pos = pos;
+            return this;
+        }
+
+        public byte readByte() {
+            return buffer.getByte(pos++);
+        }
+
+        public long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.getByte(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint at " + pos);
+        }
+
+        public long zigzag() {
+            long value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public byte[] bytes() {
+            int len = (int) varint();
+            if (len < 0 || pos + len > buffer.length()) {
+                throw new IllegalStateException("Malformed length " + len + " at " + pos);
+            }
+            byte[] value = buffer.getBytes(pos, pos + len);
+            pos += len;
+            return value;
+        }
+
+        public String string() {
+            return new String(bytes(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return a name written by {@link Writer#name(String)}.
+         */
+        public String name() {
+            int code = (int) varint();
+            if (code == 0) {
+                String name = string();
+                if (names == null) {
+                    names = new ArrayList<>();
+                }
+                names.add(name);
+                return name;
+            }
+            code--;
+            if (code < DICTIONARY.length) {
+                return DICTIONARY[code];
+            }
+            code -= DICTIONARY.length;
+            if (names == null || code >= names.size()) {
+                throw new IllegalStateException("Unknown name " + code + " at " + pos);
+            }
+            return names.get(code);
+        }
+
+        /**
+         * @return a json value written by {@link Writer#json(Object)}.
+         */
+        public Object json() {
+            byte type = readByte();
+            switch (type) {
+            case NULL:
+                return null;
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case INT:
+                return (int) zigzag();
+            case LONG:
+                return zigzag();
+            case DOUBLE:
+                pos += 8;
+                return buffer.getDouble(pos - 8);
+            case FLOAT:
+                pos += 4;
+                return buffer.getFloat(pos - 4);
+            case STRING:
+                return name();
+            case OBJECT: {
+                int size = (int) varint();
+                JsonObject obj = new JsonObject();
+                for (int i = 0; i < size; i++) {
+                    String key = name();
+                    obj.put(key, json());
+                }
+                return obj;
+            }
+            case ARRAY: {
+                int size = (int) varint();
+                JsonArray arr = new JsonArray();
+                for (int i = 0; i < size; i++) {
+                    arr.add(json());
+                }
+                return arr;
+            }
+            default:
+                throw new IllegalStateException("Unknown json type " + type + " at " + (pos - 1));
+            }
+        }
+    }
+}
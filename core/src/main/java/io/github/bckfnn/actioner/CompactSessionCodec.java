@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.impl.ClusterSerializable;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.web.handler.impl.UserHolder;
+import io.vertx.ext.web.sstore.impl.SessionImpl;
+
+/**
+ * A compact session format with varint numbers and dictionary encoded keys, see {@link CompactFormat}.
+ * Sessions in the vertx format are still decoded, so existing journals and snapshots can be read.
+ * The principal of a {@link DbUser} in the session is also written in the compact format.
+ * <p>
+ * The session version is not stored, it is only used by clustered session stores.
+ */
+public class CompactSessionCodec implements SessionCodec {
+    /**
+     * First byte of the compact format. The vertx format starts with the length of the id as an int,
+     * so its first byte is 0.
+     */
+    static final byte MAGIC = (byte) 0xC5;
+
+    private static final byte LONG = 1;
+    private static final byte INT = 2;
+    private static final byte SHORT = 3;
+    private static final byte BYTE = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte CHAR = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte STRING = 9;
+    private static final byte BUFFER = 10;
+    private static final byte BYTES = 11;
+    private static final byte JSON = 12;
+    private static final byte CLUSTER_SERIALIZABLE = 13;
+    private static final byte DB_USER = 14;
+
+    private final SessionCodec fallback = new VertxSessionCodec();
+
+    @Override
+    public byte[] encode(SessionImpl session) {
+        Map<String, Object> data = session.data();
+        int count = 0;
+        for (Object value : data.values()) {
+            if (value != null) {
+                count++;
+            }
+        }
+        CompactFormat.Writer w = new CompactFormat.Writer(Buffer.buffer(128));
+        w.buffer().appendByte(MAGIC);
+        w.string(session.id()).varint(session.timeout()).varint(session.lastAccessed()).varint(count);
+        for (Map.Entry<String, Object> e : data.entrySet()) {
+            if (e.getValue() != null) {
+                w.name(e.getKey());
+                write(w, e.getValue());
+            }
+        }
+        return w.buffer().getBytes();
+    }
+
+    private static void write(CompactFormat.Writer w, Object value) {
+        Buffer buf = w.buffer();
+        if (value instanceof Long) {
+            buf.appendByte(LONG);
+            w.zigzag((Long) value);
+        } else if (value instanceof Integer) {
+            buf.appendByte(INT);
+            w.zigzag((Integer) value);
+        } else if (value instanceof Short) {
+            buf.appendByte(SHORT);
+            w.zigzag((Short) value);
+        } else if (value instanceof Byte) {
+            buf.appendByte(BYTE).appendByte((Byte) value);
+        } else if (value instanceof Double) {
+            buf.appendByte(DOUBLE).appendDouble((Double) value);
+        } else if (value instanceof Float) {
+            buf.appendByte(FLOAT).appendFloat((Float) value);
+        } else if (value instanceof Character) {
+            buf.appendByte(CHAR);
+            w.varint((Character) value);
+        } else if (value instanceof Boolean) {
+            buf.appendByte(BOOLEAN).appendByte((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof String) {
+            buf.appendByte(STRING);
+            w.string((String) value);
+        } else if (value instanceof Buffer) {
+            buf.appendByte(BUFFER);
+            w.bytes(((Buffer) value).getBytes());
+        } else if (value instanceof byte[]) {
+            buf.appendByte(BYTES);
+            w.bytes((byte[]) value);
+        } else if (value instanceof JsonObject || value instanceof JsonArray) {
+            buf.appendByte(JSON);
+            w.json(value);
+        } else if (value instanceof UserHolder && user((UserHolder) value) instanceof DbUser) {
+            buf.appendByte(DB_USER);
+            w.json(((DbUser) user((UserHolder) value)).principal());
+        } else if (value instanceof ClusterSerializable) {
+            buf.appendByte(CLUSTER_SERIALIZABLE);
+            w.name(value.getClass().getName());
+            ((ClusterSerializable) value).writeToBuffer(buf);
+        } else {
+            throw new IllegalStateException("Invalid type for data in session: " + value.getClass());
+        }
+    }
+
+    /**
+     * @return the user of the holder, like {@link UserHolder#writeToBuffer(Buffer)}.
+     */
+    private static User user(UserHolder holder) {
+        return holder.context != null ? holder.context.user() : holder.user;
+    }
+
+    @Override
+    public SessionImpl decode(byte[] data) {
+        if (data.length == 0 || data[0] != MAGIC) {
+            return fallback.decode(data);
+        }
+        CompactFormat.Reader r = new CompactFormat.Reader(Buffer.buffer(data), 1);
+        byte[] id = r.bytes();
+        long timeout = r.varint();
+        long lastAccessed = r.varint();
+
+        // SessionImpl has no setters, so the header is read from the vertx format without data.
+        Buffer header = Buffer.buffer(id.length + 28);
+        header.appendInt(id.length).appendBytes(id).appendLong(timeout).appendLong(lastAccessed).appendInt(0).appendInt(0);
+        SessionImpl session = new SessionImpl();
+        session.readFromBuffer(0, header);
+
+        int count = (int) r.varint();
+        for (int i = 0; i < count; i++) {
+            String key = r.name();
+            session.put(key, read(r));
+        }
+        return session;
+    }
+
+    private static Object read(CompactFormat.Reader r) {
+        Buffer buf = r.buffer();
+        byte type = r.readByte();
+        switch (type) {
+        case LONG:
+            return r.zigzag();
+        case INT:
+            return (int) r.zigzag();
+        case SHORT:
+            return (short) r.zigzag();
+        case BYTE:
+            return r.readByte();
+        case DOUBLE:
+            r.pos(r.pos() + 8);
+            return buf.getDouble(r.pos() - 8);
+        case FLOAT:
+            r.pos(r.pos() + 4);
+            return buf.getFloat(r.pos() - 4);
+        case CHAR:
+            return (char) r.varint();
+        case BOOLEAN:
+            return r.readByte() != 0;
+        case STRING:
+            return new String(r.bytes(), StandardCharsets.UTF_8);
+        case BUFFER:
+            return Buffer.buffer(r.bytes());
+        case BYTES:
+            return r.bytes();
+        case JSON:
+            return r.json();
+        case CLUSTER_SERIALIZABLE: {
+            String className = r.name();
+            ClusterSerializable value;
+            try {
+                ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                if (loader == null) {
+                    loader = CompactSessionCodec.class.getClassLoader();
+                }
+                value = (ClusterSerializable) Class.forName(className, true, loader).newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to load class " + className, e);
+            }
+            r.pos(value.readFromBuffer(r.pos(), buf));
+            return value;
+        }
+        case DB_USER: {
+            UserHolder holder = new UserHolder();
+            holder.user = new DbUser((JsonObject) r.json(), (PermissionIndex) null);
+            return holder;
+        }
+        default:
+            throw new IllegalStateException("Unknown session data type " + type + " at " + (r.pos() - 1));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.typesafe.config.Config;
+
+import io.vertx.core.http.HttpServerRequest;
+
+/**
+ * Produces the precompressed variants of static content.
+ * The compression is done once, when the content is loaded, and the result is kept next to the identity bytes.
+ */
+public class Compressor {
+    private final boolean enabled;
+    private final int minSize;
+    private final Set<String> mimeTypes;
+
+    /**
+     * Constructor.
+     * @param config the <code>webserver.assets.compression</code> config.
+     */
+    public Compressor(Config config) {
+        this.enabled = config.getBoolean("enabled");
+        this.minSize = config.getBytes("minSize").intValue();
+        this.mimeTypes = new HashSet<>(config.getStringList("mimeTypes"));
+    }
+
+    /**
+     * Return true if content of the type and length should have a compressed variant.
+     * @param contentType the mime type.
+     * @param length the length of the identity content.
+     * @return true when compression should be done.
+     */
+    public boolean shouldCompress(String contentType, int length) {
+        if (!enabled || length < minSize || contentType == null) {
+            return false;
+        }
+        int semi = contentType.indexOf(';');
+        return mimeTypes.contains(semi < 0 ? contentType : contentType.substring(0, semi).trim());
+    }
+
+    /**
+     * Return the gzip variant of the data, or null if compression should not be done or does not reduce the size.
+     * @param data the identity content.
+     * @param contentType the mime type of the content.
+     * @return the compressed data or null.
+     */
+    public byte[] gzip(byte[] data, String contentType) {
+        if (!shouldCompress(contentType, data.length)) {
+            return null;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 3);
+        try (GZIPOutputStream gz = new GZIPOutputStream(baos) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gz.write(data);
+        } catch (IOException e) {
+            throw Utils.rethrow(e);
+        }
+        byte[] compressed = baos.toByteArray();
+        return compressed.length < data.length ? compressed : null;
+    }
+
+    /**
+     * Return true if the request accept the content coding.
+     * @param request the request.
+     * @param coding the content coding, f.ex. gzip.
+     * @return true if the coding is accepted with a non-zero q-value.
+     */
+    public static boolean accepts(HttpServerRequest request, String coding) {
+        String header = request.headers().get("accept-encoding");
+        if (header == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (String part : header.split(",")) {
+            int semi = part.indexOf(';');
+            String name = (semi < 0 ? part : part.substring(0, semi)).trim();
+            boolean allowed = semi < 0 || !isZeroQ(part.substring(semi + 1));
+            if (name.equalsIgnoreCase(coding)) {
+                return allowed;
+            }
+            if (name.equals("*")) {
+                wildcard = allowed;
+            }
+        }
+        return wildcard;
+    }
+
+    private static boolean isZeroQ(String params) {
+        for (String param : params.split(";")) {
+            param = param.trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim()) == 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+}
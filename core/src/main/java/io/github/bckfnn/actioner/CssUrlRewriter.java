@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Rewrite the relative urls in a css file so they are relative to the file itself, f.ex. when the file is
+ * included in a bundle. Both <code>url(...)</code> and <code>@import "..."</code> references are rewritten,
+ * while <code>data:</code>, <code>#fragment</code>, absolute and scheme urls are kept.
+ * A <code>url(...)</code> is always written with double quotes, so a double quote in a single-quoted or
+ * unquoted url is escaped. An <code>@import</code> string keeps its quote.
+ * <p>
+ * The utf-8 input is scanned once at byte level and written straight into the output. The markers are all
+ * ascii so they can never match inside a multi-byte character.
+ */
+public class CssUrlRewriter {
+    private static final byte[] URL_OPEN = "url(\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] URL_CLOSE = "\")".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IMPORT = "@import".getBytes(StandardCharsets.US_ASCII);
+
+    private CssUrlRewriter() {
+    }
+
+    /**
+     * Rewrite the css.
+     * @param file the url of the css file, used as prefix for relative urls.
+     * @param css the utf-8 encoded css.
+     * @return the rewritten css.
+     */
+    public static byte[] rewrite(String file, byte[] css) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(css.length + 256);
+        try {
+            rewrite(file, css, out);
+        } catch (IOException e) {
+            throw Utils.rethrow(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Rewrite the css into the output.
+     * @param file the url of the css file, used as prefix for relative urls.
+     * @param css the utf-8 encoded css.
+     * @param out the output.
+     * @throws IOException when the output fails.
+     */
+    public static void rewrite(String file, byte[] css, OutputStream out) throws IOException {
+        byte[] prefix = (file + "/../").getBytes(StandardCharsets.UTF_8);
+        int len = css.length;
+        int last = 0;
+        // A byte order mark in the middle of a bundle would break the following rule.
+        if (len >= 3 && (css[0] & 0xFF) == 0xEF && (css[1] & 0xFF) == 0xBB && (css[2] & 0xFF) == 0xBF) {
+            last = 3;
+        }
+        int i = last;
+        while (i < len) {
+            byte b = css[i];
+            if ((b == 'u' || b == 'U') && isUrl(css, i)) {
+                int s = skipSpace(css, i + 4);
+                int quote = s < len && (css[s] == '"' || css[s] == '\'') ? css[s] : 0;
+                int start = quote != 0 ? s + 1 : s;
+                int end = quote != 0 ? endOfString(css, start, quote) : indexOf(css, start, ')');
+                int close = quote != 0 ? indexOf(css, skipSpace(css, end + 1), ')') : end;
+                if (end < 0 || close < 0) {
+                    break;
+                }
+                if (quote == 0) {
+                    end = trimSpace(css, start, end);
+                }
+                if (end > start) {
+                    out.write(css, last, i - last);
+                    out.write(URL_OPEN);
+                    writeUrl(out, prefix, css, start, end, '"');
+                    out.write(URL_CLOSE);
+                    last = close + 1;
+                }
+                i = close + 1;
+            } else if (b == '@' && startsWith(css, i, IMPORT)) {
+                int s = skipSpace(css, i + IMPORT.length);
+                if (s < len && (css[s] == '"' || css[s] == '\'')) {
+                    int end = endOfString(css, s + 1, css[s]);
+                    if (end < 0) {
+                        break;
+                    }
+                    out.write(css, last, s + 1 - last);
+                    writeUrl(out, prefix, css, s + 1, end, css[s]);
+                    last = end;
+                    i = end + 1;
+                } else {
+                    i = s;
+                }
+            } else {
+                i++;
+            }
+        }
+        out.write(css, last, len - last);
+    }
+
+    private static void writeUrl(OutputStream out, byte[] prefix, byte[] css, int start, int end, int quote) throws IOException {
+        if (!isAbsolute(css, start, end)) {
+            writeEscaped(out, prefix, 0, prefix.length, quote);
+        }
+        writeEscaped(out, css, start, end, quote);
+    }
+
+    /**
+     * Write the bytes with a backslash before each unescaped quote, so they can be placed in a string with that quote.
+     */
+    private static void writeEscaped(OutputStream out, byte[] b, int start, int end, int quote) throws IOException {
+        int last = start;
+        for (int i = start; i < end; i++) {
+            if (b[i] == '\\') {
+                i++;
+            } else if (b[i] == quote) {
+                out.write(b, last, i - last);
+                out.write('\\');
+                last = i;
+            }
+        }
+        out.write(b, last, end - last);
+    }
+
+    /**
+     * @return true for <code>data:</code>, <code>#fragment</code>, <code>/path</code>, <code>//host</code> and <code>scheme:</code> urls.
+     */
+    static boolean isAbsolute(byte[] css, int start, int end) {
+        byte c = css[start];
+        if (c == '/' || c == '#') {
+            return true;
+        }
+        if (!isAlpha(c)) {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            c = css[i];
+            if (c == ':') {
+                return true;
+            }
+            if (!isAlpha(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUrl(byte[] css, int i) {
+        if (i + 4 > css.length || css[i + 3] != '(') {
+            return false;
+        }
+        if ((css[i + 1] | 0x20) != 'r' || (css[i + 2] | 0x20) != 'l') {
+            return false;
+        }
+        if (i > 0) {
+            byte p = css[i - 1];
+            if (isAlpha(p) || (p >= '0' && p <= '9') || p == '-' || p == '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] css, int i, byte[] s) {
+        if (i + s.length > css.length) {
+            return false;
+        }
+        for (int j = 0; j < s.length; j++) {
+            if (css[i + j] != s[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int endOfString(byte[] css, int i, int quote) {
+        while (i < css.length) {
+            byte c = css[i];
+            if (c == quote) {
+                return i;
+            }
+            i += c == '\\' ? 2 : 1;
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] css, int i, int c) {
+        for (; i < css.length; i++) {
+            if (css[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpace(byte[] css, int i) {
+        while (i < css.length && isSpace(css[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimSpace(byte[] css, int start, int end) {
+        while (end > start && isSpace(css[end - 1])) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isAlpha(byte c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
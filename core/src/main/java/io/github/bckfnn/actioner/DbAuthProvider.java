@@ -1,5 +1,6 @@
 package io.github.bckfnn.actioner;
 
+import com.codahale.metrics.MetricRegistry;
 import com.typesafe.config.Config;
 
 import io.vertx.core.AsyncResult;
@@ -11,10 +12,59 @@ import io.vertx.ext.auth.AuthProvider;
 public class DbAuthProvider implements AuthProvider {
     Main main;
     Config groups;
+    private volatile PermissionIndex index;
+    private PrincipalCache cache;
 
     public DbAuthProvider(Main main, Config groups) {
         this.main = main;
         this.groups = groups;
+        this.index = new PermissionIndex(groups);
+    }
+
+    /**
+     * @return the index of the group permissions.
+     */
+    public PermissionIndex index() {
+        return index;
+    }
+
+    /**
+     * Cache the loaded principals.
+     * @param cache the cache or null to always load the principal.
+     * @return this, for chaining.
+     */
+    public DbAuthProvider setCache(PrincipalCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Remove the cached principal of the user, f.ex. when the user's password or groups are changed.
+     * @param username the username.
+     */
+    public void invalidate(String username) {
+        if (cache != null) {
+            cache.invalidate(username);
+        }
+    }
+
+    /**
+     * Register the principal cache counters.
+     * @param registry the metrics registry.
+     */
+    public void registerMetrics(MetricRegistry registry) {
+        if (cache != null) {
+            cache.registerMetrics(registry);
+        }
+    }
+
+    /**
+     * Replace the groups config. Users pick up the new permissions on their next authorization.
+     * @param groups the groups config.
+     */
+    public void setGroups(Config groups) {
+        this.groups = groups;
+        this.index = new PermissionIndex(groups);
     }
 
     @Override
@@ -23,15 +73,20 @@ public class DbAuthProvider implements AuthProvider {
         String username = authInfo.getString("username");
         String password = authInfo.getString("password");
 
-        main.loadPrincipal(username, password, result -> {
+        Handler<AsyncResult<JsonObject>> loaded = result -> {
             if (result.failed()) {
                 handler.handle(Future.failedFuture(result.cause()));
             } else {
-                DbUser dbUser = new DbUser(result.result(), this.groups);
+                DbUser dbUser = new DbUser(result.result(), index);
                 dbUser.setAuthProvider(this);
     
                 handler.handle(Future.succeededFuture(dbUser));
             }
-        });
+        };
+        if (cache != null) {
+            cache.get(username, password, main::loadPrincipal, loaded);
+        } else {
+            main.loadPrincipal(username, password, loaded);
+        }
     }
 }
\ No newline at end of file
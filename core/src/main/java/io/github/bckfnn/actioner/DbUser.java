@@ -1,5 +1,7 @@
 package io.github.bckfnn.actioner;
 
+import java.util.BitSet;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,7 +11,6 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.shareddata.impl.ClusterSerializable;
 import io.vertx.ext.auth.AuthProvider;
@@ -17,37 +18,47 @@ import io.vertx.ext.auth.AuthProvider;
 public class DbUser implements io.vertx.ext.auth.User, ClusterSerializable {
     static Logger log = LoggerFactory.getLogger(Main.class);
 
+    private static final int COMPACT = -1;
+
     private JsonObject principal;
-    private Config groups;
+    private DbAuthProvider authProvider;
+    private volatile Grants grants;
 
     public DbUser() {
     }
 
     public DbUser(JsonObject principal, Config groups) {
+        this(principal, new PermissionIndex(groups));
+    }
+
+    public DbUser(JsonObject principal, PermissionIndex index) {
         this.principal = principal;
-        this.groups = groups;
+        this.grants = new Grants(index, null);
     }
 
     @Override
     public io.vertx.ext.auth.User isAuthorised(String authority, Handler<AsyncResult<Boolean>> resultHandler) {
-        JsonArray groups = principal.getJsonArray("groups");
-        //log.info("isAuthorized:" + authority + " in " + groups);
-        for (int i = 0; i < groups.size(); i++) {
-            //System.out.println("grp " + groups.getString(i) + " " + this.groups.getStringList(groups.getString(i)));
-            if (this.groups.getStringList(groups.getString(i)).contains(authority)) {
-                log.trace("Access to {} succeded for {}", authority, principal);
-                resultHandler.handle(Future.succeededFuture(true));
-                return this;
-            }
+        Grants grants = this.grants;
+        PermissionIndex index = authProvider != null ? authProvider.index() : grants != null ? grants.index : null;
+        if (grants == null || grants.permissions == null || grants.index != index) {
+            // First use, after deserialization or after the groups have changed.
+            grants = new Grants(index, index.permissions(principal.getJsonArray("groups")));
+            this.grants = grants;
+        }
+        if (grants.index.isAuthorised(grants.permissions, authority)) {
+            log.trace("Access to {} succeded for {}", authority, principal);
+            resultHandler.handle(Future.succeededFuture(true));
+        } else {
+            log.debug("Access to {} failed for {}", authority, principal);
+            resultHandler.handle(Future.succeededFuture(false));
         }
-        log.debug("Access to {} failed for {}", authority, principal);
-        resultHandler.handle(Future.succeededFuture(false));
         return this;
     }
 
     @Override
     public io.vertx.ext.auth.User clearCache() {
         log.info("clearCache");
+        clearPermissions();
         return this;
     }
 
@@ -58,17 +69,52 @@ public class DbUser implements io.vertx.ext.auth.User, ClusterSerializable {
 
     @Override
     public void setAuthProvider(AuthProvider authProvider) {
-        groups = ((DbAuthProvider) authProvider).groups;
+        this.authProvider = (DbAuthProvider) authProvider;
+        clearPermissions();
     }
 
+    private void clearPermissions() {
+        Grants grants = this.grants;
+        if (grants != null) {
+            this.grants = new Grants(grants.index, null);
+        }
+    }
+
+    /**
+     * Write the principal json in the vertx format. The {@link CompactSessionCodec} writes the principal of a
+     * user in the session itself, so the format of the user follows the selected session codec.
+     */
     @Override
     public void writeToBuffer(Buffer buffer) {
         principal.writeToBuffer(buffer);
     }
 
+    /**
+     * Read the principal in the vertx format, or in the {@link CompactFormat} after a marker that can not be
+     * the length of the principal json, as written by earlier versions.
+     */
     @Override
     public int readFromBuffer(int pos, Buffer buffer) {
+        if (buffer.getInt(pos) == COMPACT) {
+            CompactFormat.Reader r = new CompactFormat.Reader(buffer, pos + 4);
+            principal = (JsonObject) r.json();
+            return r.pos();
+        }
         principal = new JsonObject();
         return principal.readFromBuffer(pos, buffer);
     }
-}
\ No newline at end of file
+
+    /**
+     * The permission index and the permissions of the user in that index, replaced as a whole so a
+     * thread never sees permissions from one index together with another index.
+     */
+    private static final class Grants {
+        final PermissionIndex index;
+        final BitSet permissions;
+
+        Grants(PermissionIndex index, BitSet permissions) {
+            this.index = index;
+            this.permissions = permissions;
+        }
+    }
+}
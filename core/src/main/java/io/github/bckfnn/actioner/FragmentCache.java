@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.util.function.Supplier;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A bounded cache of rendered html fragments with a time to live. Used by {@link Layout#cached} for
+ * fragments that are the same for all users with the same locale and groups.
+ */
+public class FragmentCache {
+    private final ClockCache<String, Fragment> cache;
+    private Counter expired = new Counter();
+
+    /**
+     * Constructor.
+     * @param capacity max number of fragments.
+     */
+    public FragmentCache(int capacity) {
+        this.cache = new ClockCache<>(capacity);
+    }
+
+    /**
+     * Return the cached fragment, rendering it when it is missing or expired.
+     * @param key the key, including everything the fragment depends on.
+     * @param ttl milliseconds the fragment is kept, 0 to keep it until it is evicted.
+     * @param render the renderer of the fragment.
+     * @return the html.
+     */
+    public String get(String key, long ttl, Supplier<String> render) {
+        long now = System.currentTimeMillis();
+        Fragment f = cache.get(key);
+        if (f != null) {
+            if (f.expires == 0 || now < f.expires) {
+                return f.html;
+            }
+            expired.inc();
+            cache.remove(key);
+        }
+        String html = render.get();
+        if (html != null) {
+            html = cache.put(key, new Fragment(html, ttl > 0 ? now + ttl : 0)).html;
+        }
+        return html;
+    }
+
+    public void clear(String key) {
+        cache.remove(key);
+    }
+
+    /**
+     * Register the size, hit ratio and expirations of the cache.
+     * @param registry the metrics registry.
+     * @param name the name of the cache.
+     */
+    public void registerMetrics(MetricRegistry registry, String name) {
+        cache.registerMetrics(registry, name);
+        expired = Metrics.register(registry, name + ".expired", expired);
+    }
+
+    private static class Fragment {
+        final String html;
+        final long expires;
+
+        Fragment(String html, long expires) {
+            this.html = html;
+            this.expires = expires;
+        }
+    }
+}
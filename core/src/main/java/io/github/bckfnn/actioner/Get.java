@@ -31,4 +31,10 @@ public @interface Get {
     String url();
     String permission() default defaultPermission;
     int order() default -1;
+
+    /**
+     * True if the response can be revalidated with an etag, see {@link Action#notModified}.
+     * The response is then marked <code>private, no-cache</code> instead of <code>no-store</code>.
+     */
+    boolean cached() default false;
 }
@@ -15,28 +15,27 @@
  */
 package io.github.bckfnn.actioner;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
 import com.github.rjeschke.txtmark.Configuration;
 import com.github.rjeschke.txtmark.Processor;
 import com.typesafe.config.Config;
@@ -47,7 +46,9 @@ import io.github.bckfnn.taggersty.Tags;
 import io.github.bckfnn.taggersty.vertx.VertxHtmlTags;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.auth.User;
 import io.vertx.ext.web.RoutingContext;
 
 /**
@@ -56,6 +57,17 @@ import io.vertx.ext.web.RoutingContext;
 public abstract class Layout implements LayoutTemplate {
     public static final Logger log = LoggerFactory.getLogger(Layout.class);
 
+    /**
+     * Fragments shared by the layouts of all verticles.
+     */
+    private static final FragmentCache fragments = new FragmentCache(1024);
+
+    /**
+     * Rendered markdown by source text.
+     */
+    private static final ClockCache<String, String> markdowns = new ClockCache<>(256);
+    private static final Configuration markdownConfig = Configuration.builder().forceExtentedProfile().build();
+
     protected RoutingContext ctx;
     protected ActionRouter router;
     private Config translations;
@@ -122,6 +134,75 @@ public abstract class Layout implements LayoutTemplate {
         }
     }
 
+    /**
+     * Register the size and hit ratio of the fragment and markdown caches.
+     * @param registry the metrics registry.
+     */
+    public static void registerMetrics(MetricRegistry registry) {
+        fragments.registerMetrics(registry, "layout.fragments");
+        markdowns.registerMetrics(registry, "layout.markdown");
+    }
+
+    /**
+     * Write a cached text fragment. The text is escaped when it is written. The fragment is shared by all users
+     * with the same locale and the same groups, so it must not depend on anything else in the request.
+     * @param g the html writer.
+     * @param key the name of the fragment.
+     * @param ttl milliseconds the fragment is kept, 0 to keep it until it is evicted.
+     * @param render renders the text of the fragment.
+     */
+    public void cached(VertxHtmlTags g, String key, long ttl, Supplier<String> render) {
+        // Not shared with a html fragment of the same name.
+        String text = fragments.get(fragmentKey(key) + "|text", ttl, render);
+        if (text != null) {
+            g.text(text);
+        }
+    }
+
+    /**
+     * Write a cached html fragment, f.ex. a menu. The fragment is shared by all users with the same locale and
+     * the same groups, so it must not depend on anything else in the request.
+     * <p>
+     * The html is written as it is. It must be trusted html where all values from users or from the request are
+     * escaped, otherwise the fragment is a stored XSS that is served from the cache to every user with the same key.
+     * @param g the html writer.
+     * @param key the name of the fragment.
+     * @param ttl milliseconds the fragment is kept, 0 to keep it until it is evicted.
+     * @param render renders the html of the fragment.
+     */
+    public void cachedHtml(VertxHtmlTags g, String key, long ttl, Supplier<String> render) {
+        String html = fragments.get(fragmentKey(key), ttl, render);
+        if (html != null) {
+            g.textUnescaped(html);
+        }
+    }
+
+    /**
+     * @return the key extended with the locale and the sorted groups of the user.
+     */
+    private String fragmentKey(String key) {
+        StringBuilder sb = new StringBuilder(key).append('|');
+        if (ctx == null) {
+            return sb.toString();
+        }
+        Locale locale = ctx.get(AcceptLanguageHandler.LOCALE);
+        if (locale != null) {
+            sb.append(locale.toLanguageTag());
+        }
+        sb.append('|');
+        User user = ctx.user();
+        JsonArray groups = user != null ? user.principal().getJsonArray("groups") : null;
+        if (groups != null) {
+            List<String> sorted = new ArrayList<>(groups.size());
+            for (Object group : groups) {
+                sorted.add(String.valueOf(group));
+            }
+            Collections.sort(sorted);
+            sb.append(String.join(",", sorted));
+        }
+        return sb.toString();
+    }
+
     public static  <T extends Layout> void render(RoutingContext ctx, T layout, BiConsumer<T, VertxHtmlTags> tmpl, Handler<T> handler) {
         handler.handle(layout);
         layout.ctx(ctx);
@@ -134,34 +215,32 @@ public abstract class Layout implements LayoutTemplate {
     @Override
     public abstract void layout(VertxHtmlTags htmlWriter);
 
-    static String[] folders = { "org.webjars", "org.webjars.npm", "org.webjars.bower"  };
-
     public String webjar(String artifact, String file) {
-        try {
-            for (String folder : folders) {
-                String propFilename = "META-INF/maven/" + folder + "/" + artifact + "/pom.properties";
-                Enumeration<URL> urls = getClass().getClassLoader().getResources(propFilename);
-                if (!urls.hasMoreElements()) {
-                    continue;
-                }
-                URL url = urls.nextElement();
-                Properties props = new Properties();
-                try (InputStream is = url.openStream()) {
-                    props.load(is);
-                }
-                /*
-                while (urls.hasMoreElements()) {
-                    log.warn("extra webjar artifact found as {} and {}", urls.nextElement(), url);
-                }
-                */
-                String version = props.getProperty("version");
-                return "/webjars/" + artifact + "/" + version + "/" + file;
-            }
-        } catch (IOException e) {
-            throw Utils.rethrow(e);
+        String path = WebjarRegistry.getDefault().path(artifact, file);
+        WebjarsHandler webjars = ctx.get(WebjarsHandler.class.getName());
+        if (webjars != null) {
+            path = webjars.fingerprint(path);
         }
-        log.error("missing webjar artifact {} searched as {}", artifact, Arrays.asList(folders));
-        return "/webjars/" + artifact + "/v0/" + file;
+        return "/webjars/" + path;
+    }
+
+    /**
+     * Return the url of the layout's asset bundle of the type, fingerprinted when that is enabled.
+     * @param type the type of bundle, css or js.
+     * @return the url.
+     */
+    public String asset(String type) {
+        String contextRoot = ctx.get("contextRoot");
+        Config config = ctx.get(Config.class.getName());
+        String uri = config.getString("webserver.assets.uri");
+        if (uri.endsWith("*")) {
+            uri = uri.substring(0, uri.length() - 1);
+        }
+        AssetsHandler handler = ctx.get(AssetsHandler.class.getName());
+        if (handler == null) {
+            return contextRoot + uri + assets + "." + type;
+        }
+        return contextRoot + uri + handler.asset(assets, type);
     }
 
 
@@ -184,8 +263,11 @@ public abstract class Layout implements LayoutTemplate {
         if (s == null) {
             return null;
         }
-        Configuration conf = Configuration.builder().forceExtentedProfile().build();
-        return Processor.process(Utils.undent(s), conf);
+        String html = markdowns.get(s);
+        if (html == null) {
+            html = markdowns.put(s, Processor.process(Utils.undent(s), markdownConfig));
+        }
+        return html;
     }
 
     public String link(String action) {
@@ -216,9 +298,14 @@ public abstract class Layout implements LayoutTemplate {
     public String link(Action action, Map<String, String> map) {
         Objects.requireNonNull(action, "action");
 
-        String url = action.url();
+        List<String> groups = action.groups();
+        if (groups.isEmpty()) {
+            return action.url();
+        }
+        String[] values = new String[groups.size()];
         MultiMap requestMap = ctx.request().params();
-        for (String grp : action.groups()) {
+        for (int i = 0; i < values.length; i++) {
+            String grp = groups.get(i);
 
             String v = null;
             if (map.containsKey(grp)) {
@@ -234,10 +321,9 @@ public abstract class Layout implements LayoutTemplate {
             if (v == null) {
                 throw new RuntimeException("Missing url replacement group " + grp + " for action " + action.name());
             }
-            String val = v;
-            url = url.replace(":" + grp, Utils.val(() -> URLEncoder.encode(val, "UTF-8")));
+            values[i] = v;
         }
-        return url;
+        return action.template().link(values);
     }
 
     public String dateMedium(Date date) {
@@ -360,9 +446,18 @@ public abstract class Layout implements LayoutTemplate {
         return new ViewData<T>(data, maps);
     }
 
+    /**
+     * A read stream of the items of a java stream. The items are emitted when the handler is set, until the
+     * stream is paused.
+     */
     public class StreamReadStream<T> implements ReadStream<T> {
         private Stream<T> stream;
+        private Iterator<T> iterator;
+        private Handler<T> dataHandler;
         private Handler<Void> endHandler;
+        private boolean paused;
+        private boolean emitting;
+        private boolean ended;
 
         public StreamReadStream(Stream<T> stream) {
             this.stream = stream;
@@ -375,23 +470,49 @@ public abstract class Layout implements LayoutTemplate {
 
         @Override
         public ReadStream<T> handler(Handler<T> dataHandler) {
-            stream.forEach(item -> {
-                dataHandler.handle(item);
-            });
-            if (endHandler != null) {
-                endHandler.handle(null);
+            this.dataHandler = dataHandler;
+            if (dataHandler != null && iterator == null) {
+                iterator = stream.iterator();
+                emit();
             }
             return this;
         }
 
+        private void emit() {
+            if (emitting) {
+                // Resumed from within the data handler, the loop below continues.
+                return;
+            }
+            emitting = true;
+            try {
+                while (!paused && dataHandler != null && iterator.hasNext()) {
+                    dataHandler.handle(iterator.next());
+                }
+                if (!paused && !ended && !iterator.hasNext()) {
+                    ended = true;
+                    if (endHandler != null) {
+                        endHandler.handle(null);
+                    }
+                }
+            } finally {
+                emitting = false;
+            }
+        }
 
         @Override
         public ReadStream<T> pause() {
+            paused = true;
             return this;
         }
 
         @Override
         public ReadStream<T> resume() {
+            if (paused) {
+                paused = false;
+                if (iterator != null) {
+                    emit();
+                }
+            }
             return this;
         }
 
@@ -451,7 +572,8 @@ public abstract class Layout implements LayoutTemplate {
                     });
                 });
                 g.tbody(() -> {
-                    g.forEach(data, (g2, item) -> {
+                    ReadStream<T> rows = ctx != null ? new BackpressureReadStream<>(data, ctx.response()) : data;
+                    g.forEach(rows, (g2, item) -> {
                         g2.tr(() -> {
                             for (Column<T> col : columns) {
                                 g2.td(() -> {
@@ -20,9 +20,29 @@ import io.github.bckfnn.taggersty.vertx.VertxHtmlTags;
 import io.github.bckfnn.taggersty.vertx.VertxHtmlTags.VertxOutput;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.RoutingContext;
 
+/**
+ * Render the layout template of the request into a chunked response.
+ * Rows of view data are paused while the write queue of the response is full, see {@link BackpressureReadStream}.
+ */
 public class LayoutTemplateHandler implements Handler<RoutingContext> {
+    private final int writeQueueMaxSize;
+
+    public LayoutTemplateHandler() {
+        this(0);
+    }
+
+    /**
+     * Constructor.
+     * @param writeQueueMaxSize max bytes queued for a response before rendering of view data is paused,
+     * 0 for the vertx default.
+     */
+    public LayoutTemplateHandler(int writeQueueMaxSize) {
+        this.writeQueueMaxSize = writeQueueMaxSize;
+    }
+
     @Override
     public void handle(RoutingContext ctx) {
         LayoutTemplate template = ctx.get("template");
@@ -30,15 +50,20 @@ public class LayoutTemplateHandler implements Handler<RoutingContext> {
             ctx.next();
             return;
         }
+        RequestProfile.mark(ctx, "action");
         ctx.response().putHeader(HttpHeaders.CONTENT_TYPE, "text/html; charset=utf-8");
         ctx.response().setChunked(true);
-        if (ctx.request().method().equals("HEAD")) {
+        if (writeQueueMaxSize > 0) {
+            ctx.response().setWriteQueueMaxSize(writeQueueMaxSize);
+        }
+        if (ctx.request().method() == HttpMethod.HEAD) {
             ctx.response().end();
             return;
         }
         VertxOutput out = new VertxOutput(ctx.response());
         out.endHandler($ -> {
             System.out.println("end");
+            RequestProfile.mark(ctx, "render");
             ctx.response().end();
         });
         VertxHtmlTags htmlWriter = new VertxHtmlTags(out);
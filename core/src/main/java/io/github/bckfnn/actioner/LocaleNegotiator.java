@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Match the locales accepted by a client against the locales supported by the application, as
+ * described by the lookup and basic filtering schemes of RFC 4647.
+ */
+public class LocaleNegotiator {
+    private static final Locale NONE = Locale.ROOT;
+
+    private final List<Locale> supported;
+    private final Map<String, Locale> byTag = new HashMap<>();
+    private final ClockCache<Locale, Locale> matches = new ClockCache<>(256);
+
+    /**
+     * Constructor.
+     * @param supported the supported locales, in order of preference.
+     */
+    public LocaleNegotiator(List<Locale> supported) {
+        if (supported.isEmpty()) {
+            throw new IllegalArgumentException("No supported locales");
+        }
+        this.supported = Collections.unmodifiableList(new ArrayList<>(supported));
+        for (Locale l : supported) {
+            byTag.putIfAbsent(l.toLanguageTag().toLowerCase(Locale.ROOT), l);
+        }
+    }
+
+    /**
+     * @return the supported locales.
+     */
+    public List<Locale> supported() {
+        return supported;
+    }
+
+    /**
+     * RFC 4647 lookup: return the supported locale that best match the first possible of the accepted locales.
+     * Each accepted locale is tried with progressively fewer subtags, f.ex. <code>de-CH-1996</code>,
+     * <code>de-CH</code> and <code>de</code>.
+     * @param accepted the accepted locales in order of priority.
+     * @param fallback the locale to try when none of the accepted locales match.
+     * @return the matching locale, or the first supported locale when nothing match.
+     */
+    public Locale lookup(List<Locale> accepted, Locale fallback) {
+        for (int i = 0; i < accepted.size(); i++) {
+            Locale l = match(accepted.get(i));
+            if (l != null) {
+                return l;
+            }
+        }
+        if (fallback != null) {
+            Locale l = match(fallback);
+            if (l != null) {
+                return l;
+            }
+        }
+        return supported.get(0);
+    }
+
+    /**
+     * RFC 4647 basic filtering: return the supported locales that are matched by the accepted locales.
+     * A locale is matched when it is equal to or begin with an accepted locale, f.ex. <code>de</code> match
+     * both <code>de</code> and <code>de-CH</code>.
+     * @param accepted the accepted locales in order of priority.
+     * @return the matching locales in order of priority, and in the order of the supported locales for each
+     * accepted locale.
+     */
+    public List<Locale> filter(List<Locale> accepted) {
+        List<Locale> ret = new ArrayList<>();
+        for (Locale a : accepted) {
+            String range = a.toLanguageTag().toLowerCase(Locale.ROOT);
+            for (Locale l : supported) {
+                String tag = l.toLanguageTag().toLowerCase(Locale.ROOT);
+                if ((tag.equals(range) || tag.startsWith(range) && tag.charAt(range.length()) == '-') && !ret.contains(l)) {
+                    ret.add(l);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private Locale match(Locale locale) {
+        Locale m = matches.get(locale);
+        if (m == null) {
+            m = matches.put(locale, truncate(locale.toLanguageTag().toLowerCase(Locale.ROOT)));
+        }
+        return m == NONE ? null : m;
+    }
+
+    private Locale truncate(String tag) {
+        for (;;) {
+            Locale l = byTag.get(tag);
+            if (l != null) {
+                return l;
+            }
+            int i = tag.lastIndexOf('-');
+            if (i < 0) {
+                return NONE;
+            }
+            // A single letter extension subtag is removed together with the following subtag.
+            if (i >= 2 && tag.charAt(i - 2) == '-') {
+                i -= 2;
+            }
+            tag = tag.substring(0, i);
+        }
+    }
+}
@@ -32,6 +32,9 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
@@ -77,7 +80,6 @@ import io.vertx.ext.web.handler.sockjs.BridgeOptions;
 import io.vertx.ext.web.handler.sockjs.PermittedOptions;
 import io.vertx.ext.web.handler.sockjs.SockJSHandler;
 import io.vertx.ext.web.sstore.LocalSessionStore;
-import io.vertx.ext.web.sstore.SessionStore;
 
 /**
  * Main class for an application Verticle.
@@ -88,9 +90,12 @@ public class Main extends AbstractVerticle {
     protected Config config;
     private Config translations;
     private ActionRouter actionRouter = new ActionRouter();
-    private SessionStore sessionStore;
+    private PersistentLocalSessionStore sessionStore;
     private AuthProvider authProvider;
     private HttpServer server;
+    private WebjarsHandler webjarsHandler;
+    private AssetsHandler assetsHandler;
+    private Profiler profiler;
 
 
     public Main() {
@@ -132,13 +137,24 @@ public class Main extends AbstractVerticle {
         //Persistor persistor = makePersistor(config, schema);
 
         if (config.hasPath("groups")) {
-            authProvider = new DbAuthProvider(this, ConfigFactory.load(config.getString("groups")));
+            DbAuthProvider dbAuthProvider = new DbAuthProvider(this, ConfigFactory.load(config.getString("groups")));
+            if (config.hasPath("auth.cache") && config.getBoolean("auth.cache.enabled")) {
+                dbAuthProvider.setCache(new PrincipalCache(config.getConfig("auth.cache")));
+            }
+            authProvider = dbAuthProvider;
         }
 
         Router router = Router.router(vertx);
         System.out.println(router);
 
+        if (config.hasPath("profiling") && config.getBoolean("profiling.enabled")) {
+            profiler = Profiler.getDefault(config.getConfig("profiling"), develop);
+        }
+
         router.route().handler(ctx -> {
+            if (profiler != null) {
+                profiler.start(ctx);
+            }
 
             ctx.put(Vertx.class.getName(), vertx);
             ctx.put(Router.class.getName(), router);
@@ -150,19 +166,25 @@ public class Main extends AbstractVerticle {
             ctx.put("translations", translations);
             ctx.put("contextRoot", contextRoot);
             ctx.put(AuthProvider.class.getName(), authProvider);
+            ctx.put(WebjarsHandler.class.getName(), webjarsHandler);
+            ctx.put(AssetsHandler.class.getName(), assetsHandler);
 
             ctx.response().putHeader("X-Frame-Options", "deny");
             configContext(ctx);
             log.debug("request: {}", ctx.request().path());
             ctx.next();
         });
+        phase(router, "setup");
 
         if (authProvider != null) {
-            sessionStore = new PersistentLocalSessionStore(vertx, LocalSessionStore.DEFAULT_SESSION_MAP_NAME, LocalSessionStore.DEFAULT_REAPER_INTERVAL, config.getString("sessionStorage")); //LocalSessionStore.create(vertx);
+            sessionStore = PersistentLocalSessionStore.shared(vertx, LocalSessionStore.DEFAULT_SESSION_MAP_NAME, LocalSessionStore.DEFAULT_REAPER_INTERVAL,
+                    config.getString("sessionStorage"), config.getConfig("sessionJournal")); //LocalSessionStore.create(vertx);
         }
 
         router.route().handler(CookieHandler.create());
+        phase(router, "cookie");
         router.route().handler(BodyHandler.create());
+        phase(router, "body");
 
         if (config.hasPath("metrics")) {
             MetricRegistry registry = SharedMetricRegistries.getOrCreate(config.getString("metrics.registryName"));
@@ -177,17 +199,41 @@ public class Main extends AbstractVerticle {
                 root.addAppender(metrics);
             }
 
+            WebjarRegistry.getDefault().registerMetrics(registry);
+            AcceptLanguageHandler.registerMetrics(registry);
+            Layout.registerMetrics(registry);
+            if (authProvider instanceof DbAuthProvider) {
+                ((DbAuthProvider) authProvider).registerMetrics(registry);
+            }
+
+            if (profiler != null) {
+                profiler.setRegistry(registry);
+            }
+
             if (config.hasPath("metrics.prometheus.uri")) {
-                router.get(config.getString("metrics.prometheus.uri")).handler(new PrometheusMetricsHandler(registry));
+                router.get(config.getString("metrics.prometheus.uri")).handler(new PrometheusMetricsHandler(vertx, registry, config.getConfig("metrics.prometheus")));
             }
 
         }
 
+        if (develop) {
+            WebjarRegistry.getDefault().reload();
+        }
+        Compressor compressor = null;
+        if (config.hasPath("webserver.assets.compression")) {
+            compressor = new Compressor(config.getConfig("webserver.assets.compression"));
+        }
+        boolean fingerprint = config.hasPath("webserver.assets.fingerprint") && config.getBoolean("webserver.assets.fingerprint");
         if (config.hasPath("webserver.webjars")) {
-            router.route().path(contextRoot + config.getString("webserver.webjars.uri")).handler(new WebjarsHandler());
+            webjarsHandler = new WebjarsHandler().setCompressor(compressor).setFingerprinting(fingerprint);
+            if (config.hasPath("webserver.webjars.cache")) {
+                webjarsHandler.setCache(new ResourceCache(config.getConfig("webserver.webjars.cache")));
+            }
+            router.route().path(contextRoot + config.getString("webserver.webjars.uri")).handler(webjarsHandler);
         }
         if (config.hasPath("webserver.assets")) {
-            router.route().path(contextRoot + config.getString("webserver.assets.uri")).handler(new AssetsHandler());
+            assetsHandler = new AssetsHandler().setDevelop(develop).setCompressor(compressor).setFingerprinting(fingerprint);
+            router.route().path(contextRoot + config.getString("webserver.assets.uri")).handler(assetsHandler);
         }
 
         if (config.hasPath("webserver.public")) {
@@ -197,17 +243,31 @@ public class Main extends AbstractVerticle {
         if (authProvider != null) {
             router.route().handler(SessionHandler.create(sessionStore).setNagHttps(!develop));
             router.route().handler(UserSessionHandler.create(authProvider));
+            phase(router, "session");
+        }
+        List<Locale> supportedLocales = new ArrayList<>();
+        for (String tag : config.getStringList("supportedLocales")) {
+            supportedLocales.add(Locale.forLanguageTag(tag));
+        }
+        router.route().handler(new AcceptLanguageHandler(true).supportedLocales(supportedLocales));
+        phase(router, "locale");
+        if (profiler != null && authProvider != null && config.hasPath("profiling.uri")) {
+            router.get(contextRoot + config.getString("profiling.uri")).handler(profiler.samplesHandler(config.getString("profiling.permission")));
         }
-        router.route().handler(new AcceptLanguageHandler(true));
         router.route().handler(LoggerHandler.create(false, LoggerFormat.SHORT));
 
         configRouter(router);
 
+        actionRouter.setTrieDispatch(config.getString("webserver.actionDispatch").equals("trie"));
+
         for (String cls : config.getStringList("app.actionClasses")) {
             actionRouter.addAction(contextRoot, router, getClass().getClassLoader().loadClass(cls));
         }
+        if (config.hasPath("metrics") && config.getBoolean("metrics.actions")) {
+            actionRouter.registerMetrics(SharedMetricRegistries.getOrCreate(config.getString("metrics.registryName")));
+        }
 
-        router.route().handler(new LayoutTemplateHandler());
+        router.route().handler(new LayoutTemplateHandler(config.getBytes("webserver.render.writeQueueMaxSize").intValue()));
         router.route().failureHandler(ctx -> {
             if (ctx.failed() && ctx.failure() != null) {
                 log.error("Error handler", ctx.failure());
@@ -237,12 +297,25 @@ public class Main extends AbstractVerticle {
     }
 
     @Override
-    public void stop() {
+    public void stop(Future<Void> future) {
         log.info("Stopping");
         server.close();
-        if (sessionStore != null) {
-            sessionStore.close();
+        if (sessionStore == null) {
+            stopLogging();
+            future.complete();
+            return;
         }
+        // The session journal is flushed on a worker thread.
+        sessionStore.close(res -> {
+            if (res.failed()) {
+                log.error("failed to close the session store", res.cause());
+            }
+            stopLogging();
+            future.complete();
+        });
+    }
+
+    private void stopLogging() {
         // http://logback.qos.ch/manual/configuration.html#stopContext
         LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
         loggerContext.stop();
@@ -256,6 +329,15 @@ public class Main extends AbstractVerticle {
 
     }
 
+    /**
+     * Mark the end of a phase of the handler chain when profiling is enabled.
+     */
+    private void phase(Router router, String name) {
+        if (profiler != null) {
+            router.route().handler(profiler.phase(name));
+        }
+    }
+
     /**
      * Override to provide additional configuration of the Router.
      * @param router the routing.
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Helpers for registering actioner metrics in the shared dropwizard registry.
+ */
+public class Metrics {
+    /**
+     * Prefix of all metric names registered by actioner.
+     */
+    public static final String PREFIX = "actioner.";
+
+    private static final Class<?>[] KINDS = { Gauge.class, Counter.class, Histogram.class, Meter.class, Timer.class };
+
+    /**
+     * Register the metric under the name, unless a metric is already registered with that name.
+     * The registry is shared by all verticle instances and outlives them, so the first registration wins and
+     * later registrations must use the returned metric, f.ex. by replacing their own counter with it.
+     * @param registry the registry.
+     * @param name the name of the metric, without the prefix.
+     * @param metric the metric.
+     * @param <T> the type of metric.
+     * @return the registered metric.
+     * @throws IllegalArgumentException when another kind of metric is registered with the name.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Metric> T register(MetricRegistry registry, String name, T metric) {
+        name = PREFIX + name;
+        synchronized (registry) {
+            Metric existing = registry.getMetrics().get(name);
+            if (existing == null) {
+                return registry.register(name, metric);
+            }
+            for (Class<?> kind : KINDS) {
+                if (kind.isInstance(metric) != kind.isInstance(existing)) {
+                    throw new IllegalArgumentException("A metric named " + name + " already exists");
+                }
+            }
+            return (T) existing;
+        }
+    }
+}
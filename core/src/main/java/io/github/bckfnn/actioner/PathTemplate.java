@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled url template like <code>/user/:id/edit</code>. The template is split into literal parts and named
+ * parameters once, so the parameters can be extracted from a request path without regular expressions.
+ * A parameter match one or more characters within a path segment, like the vertx router.
+ */
+public class PathTemplate {
+    private static final Pattern PARAM = Pattern.compile(":([A-Za-z][A-Za-z0-9_]*)");
+    private static final Pattern PARAM_SEGMENT = Pattern.compile(":[A-Za-z][A-Za-z0-9_]*");
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final String template;
+    private final List<String> names;
+    /**
+     * The literal text before, between and after the parameters. Always one more than the parameters.
+     */
+    private final String[] literals;
+    /**
+     * The part of each literal that is in the same path segment as the preceding parameter.
+     */
+    private final String[] segmentLiterals;
+
+    /**
+     * Constructor.
+     * @param template the url template.
+     */
+    public PathTemplate(String template) {
+        this.template = template;
+        List<String> names = new ArrayList<>();
+        List<String> literals = new ArrayList<>();
+        Matcher m = PARAM.matcher(template);
+        int last = 0;
+        while (m.find()) {
+            String name = m.group(1);
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("Cannot use identifier " + name + " more than once in pattern string");
+            }
+            names.add(name);
+            literals.add(template.substring(last, m.start()));
+            last = m.end();
+        }
+        literals.add(template.substring(last));
+        this.names = Collections.unmodifiableList(names);
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.segmentLiterals = new String[this.literals.length];
+        for (int i = 0; i < this.literals.length; i++) {
+            String lit = this.literals[i];
+            int slash = lit.indexOf('/');
+            segmentLiterals[i] = slash < 0 ? lit : lit.substring(0, slash);
+        }
+    }
+
+    /**
+     * @return the url template.
+     */
+    public String template() {
+        return template;
+    }
+
+    /**
+     * @return the names of the parameters, in the order they appear in the template.
+     */
+    public List<String> names() {
+        return names;
+    }
+
+    /**
+     * @param segment a path segment of a template.
+     * @return true if the segment is a single parameter and nothing else.
+     */
+    static boolean isParamSegment(String segment) {
+        return PARAM_SEGMENT.matcher(segment).matches();
+    }
+
+    /**
+     * Match the path against the template and store the url decoded parameter values in the array.
+     * @param path the normalised request path.
+     * @param args array of at least {@link #names()} size.
+     * @return false if the path does not match the template.
+     */
+    public boolean match(String path, String[] args) {
+        String first = literals[0];
+        if (!path.startsWith(first)) {
+            return false;
+        }
+        int pos = first.length();
+        int len = path.length();
+        for (int i = 0; i < names.size(); i++) {
+            String lit = literals[i + 1];
+            String segLit = segmentLiterals[i + 1];
+            int segEnd = path.indexOf('/', pos);
+            if (segEnd < 0) {
+                segEnd = len;
+            }
+            int end;
+            if (segLit.isEmpty()) {
+                end = segEnd;
+            } else {
+                end = path.lastIndexOf(segLit, segEnd - segLit.length());
+            }
+            if (end <= pos || !path.startsWith(lit, end)) {
+                return false;
+            }
+            args[i] = decode(path.substring(pos, end));
+            pos = end + lit.length();
+        }
+        return pos == len || (pos == len - 1 && path.charAt(pos) == '/');
+    }
+
+    /**
+     * Build a link by inserting the url encoded values in place of the parameters.
+     * @param values the values of the parameters, in the order of {@link #names()}.
+     * @return the link.
+     */
+    public String link(String... values) {
+        if (values.length != names.size()) {
+            throw new IllegalArgumentException("Expected " + names.size() + " values for " + template + ", got " + values.length);
+        }
+        if (values.length == 0) {
+            return template;
+        }
+        return link(new StringBuilder(template.length() + 16 * values.length), values).toString();
+    }
+
+    /**
+     * Append a link to the builder.
+     * @param sb the builder.
+     * @param values the values of the parameters, in the order of {@link #names()}.
+     * @return the builder.
+     */
+    public StringBuilder link(StringBuilder sb, String... values) {
+        sb.append(literals[0]);
+        for (int i = 0; i < names.size(); i++) {
+            appendEncoded(sb, values[i]);
+            sb.append(literals[i + 1]);
+        }
+        return sb;
+    }
+
+    /**
+     * Append the value as a path segment, percent encoding all but the unreserved characters.
+     * @param sb the builder.
+     * @param value the value.
+     */
+    static void appendEncoded(StringBuilder sb, String value) {
+        int len = value.length();
+        int i = 0;
+        while (i < len && isUnreserved(value.charAt(i))) {
+            i++;
+        }
+        if (i == len) {
+            sb.append(value);
+            return;
+        }
+        sb.append(value, 0, i);
+        for (byte b : value.substring(i).getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if (isUnreserved(c)) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    private static String decode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        try {
+            // A '+' in a path is not a space.
+            return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
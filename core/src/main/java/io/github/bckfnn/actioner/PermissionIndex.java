@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValue;
+import com.typesafe.config.ConfigValueType;
+
+import io.vertx.core.json.JsonArray;
+
+/**
+ * The permissions of the groups config, as a dense index of permission names and a bitset per group.
+ * The permissions of a user is the union of the bitsets of the user's groups, so authorization is a single bit test.
+ */
+public class PermissionIndex {
+    private static final BitSet EMPTY = new BitSet(0);
+
+    private final Map<String, Integer> bits = new HashMap<>();
+    private final Map<String, BitSet> groups = new HashMap<>();
+
+    /**
+     * Constructor.
+     * @param groups the groups config, mapping group names to lists of permissions.
+     */
+    public PermissionIndex(Config groups) {
+        for (Map.Entry<String, ConfigValue> e : groups.entrySet()) {
+            if (e.getValue().valueType() != ConfigValueType.LIST) {
+                continue;
+            }
+            BitSet set = new BitSet();
+            for (String permission : groups.getStringList(e.getKey())) {
+                set.set(bits.computeIfAbsent(permission, k -> bits.size()));
+            }
+            this.groups.put(e.getKey(), set);
+        }
+    }
+
+    /**
+     * @param permission the permission name.
+     * @return the bit of the permission or -1 if no group has the permission.
+     */
+    public int bit(String permission) {
+        Integer bit = bits.get(permission);
+        return bit != null ? bit : -1;
+    }
+
+    /**
+     * @param group the group name.
+     * @return the permissions of the group.
+     */
+    public BitSet group(String group) {
+        BitSet set = groups.get(group);
+        return set != null ? set : EMPTY;
+    }
+
+    /**
+     * @param groups the group names.
+     * @return the union of the permissions of the groups.
+     */
+    public BitSet permissions(List<String> groups) {
+        BitSet set = new BitSet(bits.size());
+        for (String group : groups) {
+            set.or(group(group));
+        }
+        return set;
+    }
+
+    /**
+     * @param groups the group names, from the <code>groups</code> field of a principal.
+     * @return the union of the permissions of the groups.
+     */
+    public BitSet permissions(JsonArray groups) {
+        BitSet set = new BitSet(bits.size());
+        if (groups != null) {
+            for (int i = 0; i < groups.size(); i++) {
+                set.or(group(groups.getString(i)));
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @param permissions the permissions of a user.
+     * @param permission the permission name.
+     * @return true if the permission is in the set.
+     */
+    public boolean isAuthorised(BitSet permissions, String permission) {
+        int bit = bit(permission);
+        return bit >= 0 && permissions.get(bit);
+    }
+
+    /**
+     * @return the number of distinct permissions.
+     */
+    public int size() {
+        return bits.size();
+    }
+}
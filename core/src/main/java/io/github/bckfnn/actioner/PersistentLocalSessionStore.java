@@ -1,14 +1,27 @@
 package io.github.bckfnn.actioner;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.typesafe.config.Config;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.ext.web.Session;
@@ -16,54 +29,377 @@ import io.vertx.ext.web.handler.impl.UserHolder;
 import io.vertx.ext.web.sstore.impl.LocalSessionStoreImpl;
 import io.vertx.ext.web.sstore.impl.SessionImpl;
 
+/**
+ * A local session store that persist the sessions in a {@link SessionJournal}, so they survive a restart
+ * or a crash. Sessions are encoded on the event loop when they are stored and written by the journal's
+ * writer thread.
+ * <p>
+ * At startup only the index of the memory-mapped snapshot is loaded. A session from the snapshot is decoded
+ * when it is first requested, and sessions that have expired are never decoded.
+ * <p>
+ * Use {@link #shared(Vertx, String, long, String, Config)} to get a store that is shared by all verticle
+ * instances of a deployment. Changes to the same session from different event loops are serialized with
+ * striped locks, so the journal records them in the same order as the map. A clear excludes all other changes.
+ */
 public class PersistentLocalSessionStore extends LocalSessionStoreImpl {
     private static Logger log = LoggerFactory.getLogger(PersistentLocalSessionStore.class);
-    
-    private String sessionStorage;
-    
+
+    private static final Map<String, PersistentLocalSessionStore> shared = new HashMap<>();
+    private static final int STRIPES = 64;
+
+    private final Object[] locks = new Object[STRIPES];
+    private final ReadWriteLock clearLock = new ReentrantReadWriteLock();
+    private String sharedKey;
+    private int refCount = 1;
+
+    private final Vertx vertx;
+    private final SessionJournal journal;
+    private final SessionCodec codec;
+    private final long reaperInterval;
+    private final long compactInterval;
+    private final List<Context> holders = new ArrayList<>();
+    private Context owner;
+    private long reaperTimer = -1;
+    private long compactTimer = -1;
+    private boolean closed;
+    private final Map<String, SessionSnapshot.Entry> lazy = new ConcurrentHashMap<>();
+    private volatile SessionSnapshot snapshot;
+
     public PersistentLocalSessionStore(Vertx vertx, String sessionMapName, long reaperInterval, String sessionStorage) {
-        super(vertx, sessionMapName, reaperInterval);
-        this.sessionStorage = sessionStorage;
+        this(vertx, sessionMapName, reaperInterval, new SessionJournal(sessionStorage, SessionJournal.Fsync.INTERVAL, 1000, 64 * 1024 * 1024),
+                new VertxSessionCodec(), 10 * 60 * 1000);
+    }
+
+    /**
+     * Return the store for the session storage, shared by all verticle instances. The first call creates the
+     * store, and each call must be matched by a {@link #close()}. The store is flushed and closed when the last
+     * verticle closes it. The reaper and compaction timers belong to one of the verticles, and are moved to
+     * another verticle when that verticle closes the store.
+     * @param vertx the vertx instance.
+     * @param sessionMapName name of the local map of sessions.
+     * @param reaperInterval milliseconds between removal of expired sessions.
+     * @param sessionStorage the snapshot file.
+     * @param journalConfig the <code>sessionJournal</code> config.
+     * @return the shared store.
+     */
+    public static PersistentLocalSessionStore shared(Vertx vertx, String sessionMapName, long reaperInterval, String sessionStorage, Config journalConfig) {
+        String key = new File(sessionStorage).getAbsolutePath();
+        synchronized (shared) {
+            PersistentLocalSessionStore store = shared.get(key);
+            if (store != null) {
+                store.refCount++;
+                store.holders.add(Vertx.currentContext());
+                return store;
+            }
+            store = new PersistentLocalSessionStore(vertx, sessionMapName, reaperInterval, new SessionJournal(sessionStorage, journalConfig),
+                    SessionCodec.create(journalConfig.getString("codec")), journalConfig.getDuration("compactInterval", TimeUnit.MILLISECONDS));
+            store.sharedKey = key;
+            store.holders.add(Vertx.currentContext());
+            shared.put(key, store);
+            return store;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param vertx the vertx instance.
+     * @param sessionMapName name of the local map of sessions.
+     * @param reaperInterval milliseconds between removal of expired sessions.
+     * @param journal the journal, not yet opened.
+     * @param codec the encoding of the sessions.
+     * @param compactInterval milliseconds between compactions of the journal.
+     */
+    public PersistentLocalSessionStore(Vertx vertx, String sessionMapName, long reaperInterval, SessionJournal journal, SessionCodec codec, long compactInterval) {
+        // The reaper timer is set by this store, so it can be moved to another verticle.
+        super(vertx, sessionMapName, 0);
+        this.vertx = vertx;
+        this.reaperInterval = reaperInterval;
+        this.compactInterval = compactInterval;
+        this.journal = journal;
+        this.codec = codec;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        List<SessionImpl> legacy = new ArrayList<>();
         try {
-            try (InputStream is = new FileInputStream(sessionStorage)) {
-                Buffer buf = Buffer.buffer(Utils.readAsBytes(is));
-                for (int pos = 0; pos < buf.length(); ) {
-                    SessionImpl session = new SessionImpl();
-                    pos = session.readFromBuffer(pos, buf);
-                    session.setAccessed();
-                    localMap.put(session.id(), session);
+            if (journal.isLegacySnapshot()) {
+                legacy = readLegacy(journal.snapshot().toFile());
+            }
+            SessionSnapshot snapshot = journal.openSnapshot();
+            if (snapshot != null) {
+                long now = System.currentTimeMillis();
+                for (Map.Entry<String, SessionSnapshot.Entry> e : snapshot.index().entrySet()) {
+                    if (e.getValue().expires() >= now) {
+                        lazy.put(e.getKey(), e.getValue());
+                    }
                 }
+                this.snapshot = snapshot;
+                log.info("indexed {} sessions in {}", lazy.size(), journal.snapshot());
             }
+            journal.replay(new SessionJournal.Replay() {
+                @Override
+                public void put(String id, long expires, byte[] data) {
+                    lazy.remove(id);
+                    try {
+                        SessionImpl session = decode(data);
+                        session.setAccessed();
+                        localMap.put(id, session);
+                    } catch (RuntimeException e) {
+                        log.warn("failed to read session {}: {}", id, e.toString());
+                    }
+                }
+
+                @Override
+                public void delete(String id) {
+                    lazy.remove(id);
+                    localMap.remove(id);
+                }
+
+                @Override
+                public void clear() {
+                    lazy.clear();
+                    localMap.clear();
+                }
+            });
+            journal.open();
         } catch (Exception e) {
-            log.info("failed to load local sessions " + e.getMessage());
+            log.error("failed to load local sessions, sessions are not persisted: " + e.getMessage());
+        }
+        for (SessionImpl session : legacy) {
+            if (!localMap.containsKey(session.id()) && !lazy.containsKey(session.id())) {
+                localMap.put(session.id(), session);
+                journalPut(session);
+            }
+        }
+        if (legacy.size() > 0) {
+            // Replace the old snapshot format.
+            journal.compact();
+        }
+        owner = Vertx.currentContext();
+        setTimers();
+    }
+
+    /**
+     * Set the reaper and compaction timers on the current context.
+     */
+    private synchronized void setTimers() {
+        if (reaperInterval > 0) {
+            reaperTimer = vertx.setPeriodic(reaperInterval, this::handle);
+        }
+        if (compactInterval > 0) {
+            compactTimer = vertx.setPeriodic(compactInterval, id -> {
+                journal.compact();
+                purgeLazy();
+            });
         }
     }
 
+    private synchronized void cancelTimers() {
+        if (reaperTimer != -1) {
+            vertx.cancelTimer(reaperTimer);
+            reaperTimer = -1;
+        }
+        if (compactTimer != -1) {
+            vertx.cancelTimer(compactTimer);
+            compactTimer = -1;
+        }
+    }
+
+    /**
+     * Move the timers to the context of another verticle, before the owner is undeployed and its timers are cancelled.
+     */
+    private void moveTimers(Context next) {
+        synchronized (this) {
+            cancelTimers();
+            owner = next;
+        }
+        next.runOnContext(v -> {
+            synchronized (this) {
+                if (owner == next && !closed) {
+                    setTimers();
+                }
+            }
+        });
+    }
+
     @Override
-    public synchronized void close() {
-        super.close();
-        Buffer buf = Buffer.buffer();
-        for (Session session: localMap.values()) {
-            if (session instanceof SessionImpl) {
-                SessionImpl ses = (SessionImpl) session;
-                UserHolder h = (UserHolder) ses.data().get("__vertx.userHolder");
-                if (h != null) {
-                    if (h.user == null) {
-                        h.user = h.context.user();
-                    }
+    public void get(String id, Handler<AsyncResult<Session>> resultHandler) {
+        if (!lazy.isEmpty()) {
+            clearLock.readLock().lock();
+            try {
+                synchronized (lock(id)) {
+                    load(id);
                 }
-                ses.writeToBuffer(buf);
+            } finally {
+                clearLock.readLock().unlock();
             }
         }
+        super.get(id, resultHandler);
+    }
+
+    @Override
+    public void size(Handler<AsyncResult<Integer>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture(localMap.size() + lazy.size()));
+    }
+
+    /**
+     * Decode a session from the snapshot on first use.
+     */
+    private void load(String id) {
+        SessionSnapshot.Entry e = lazy.remove(id);
+        SessionSnapshot snapshot = this.snapshot;
+        if (e == null || snapshot == null || e.expires() < System.currentTimeMillis()) {
+            return;
+        }
         try {
-            try (OutputStream os = new FileOutputStream(sessionStorage)) {
-                os.write(buf.getBytes());
+            SessionImpl session = decode(snapshot.data(e));
+            session.setAccessed();
+            localMap.putIfAbsent(id, session);
+        } catch (RuntimeException ex) {
+            log.warn("failed to read session {}: {}", id, ex.toString());
+        }
+    }
+
+    /**
+     * Forget the expired sessions that was never used, and the snapshot when all sessions are loaded.
+     */
+    private void purgeLazy() {
+        long now = System.currentTimeMillis();
+        lazy.values().removeIf(e -> e.expires() < now);
+        if (lazy.isEmpty()) {
+            snapshot = null;
+        }
+    }
+
+    @Override
+    public void put(Session session, Handler<AsyncResult<Boolean>> resultHandler) {
+        clearLock.readLock().lock();
+        try {
+            synchronized (lock(session.id())) {
+                localMap.put(session.id(), session);
+                if (session instanceof SessionImpl) {
+                    journalPut((SessionImpl) session);
+                }
+            }
+        } finally {
+            clearLock.readLock().unlock();
+        }
+        resultHandler.handle(Future.succeededFuture(true));
+    }
+
+    @Override
+    public void delete(String id, Handler<AsyncResult<Boolean>> resultHandler) {
+        boolean removed;
+        clearLock.readLock().lock();
+        try {
+            synchronized (lock(id)) {
+                removed = lazy.remove(id) != null;
+                removed |= localMap.remove(id) != null;
+                journal.delete(id);
+            }
+        } finally {
+            clearLock.readLock().unlock();
+        }
+        resultHandler.handle(Future.succeededFuture(removed));
+    }
+
+    @Override
+    public void clear(Handler<AsyncResult<Boolean>> resultHandler) {
+        clearLock.writeLock().lock();
+        try {
+            lazy.clear();
+            localMap.clear();
+            journal.clear();
+        } finally {
+            clearLock.writeLock().unlock();
+        }
+        resultHandler.handle(Future.succeededFuture(true));
+    }
+
+    /**
+     * Release the store. A shared store is only closed, and the journal flushed, when the last user releases it.
+     * The journal is flushed in the background, use {@link #close(Handler)} to wait for it.
+     */
+    @Override
+    public void close() {
+        close(null);
+    }
+
+    /**
+     * Release the store. A shared store is only closed, and the journal flushed, when the last user releases it.
+     * The journal is flushed and compacted on a worker thread, so the event loop is not blocked.
+     * @param completionHandler called when the journal is closed, may be null.
+     */
+    public void close(Handler<AsyncResult<Void>> completionHandler) {
+        if (sharedKey != null) {
+            synchronized (shared) {
+                holders.remove(Vertx.currentContext());
+                if (--refCount > 0) {
+                    if (!holders.contains(owner) && !holders.isEmpty()) {
+                        moveTimers(holders.get(0));
+                    }
+                    if (completionHandler != null) {
+                        completionHandler.handle(Future.succeededFuture());
+                    }
+                    return;
+                }
+                shared.remove(sharedKey);
             }
-        } catch (IOException e) {
-            log.error("failed to save local sessions", e);
         }
+        synchronized (this) {
+            closed = true;
+            super.close();
+            cancelTimers();
+        }
+        vertx.<Void>executeBlocking(fut -> {
+            journal.close();
+            fut.complete();
+        }, false, res -> {
+            if (completionHandler != null) {
+                completionHandler.handle(res);
+            }
+        });
     }
 
+    private Object lock(String id) {
+        return locks[(id.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    private void journalPut(SessionImpl session) {
+        journal.put(session.id(), session.lastAccessed() + session.timeout(), encode(session));
+    }
+
+    /**
+     * Encode the session. The user of the request is stored in the user holder, so it is encoded
+     * even after the request is done.
+     */
+    private byte[] encode(SessionImpl session) {
+        UserHolder h = (UserHolder) session.data().get("__vertx.userHolder");
+        if (h != null && h.user == null && h.context != null) {
+            h.user = h.context.user();
+        }
+        return codec.encode(session);
+    }
 
+    private SessionImpl decode(byte[] data) {
+        return codec.decode(data);
+    }
 
+    /**
+     * Read the old snapshot format, where all sessions were written on close.
+     */
+    private static List<SessionImpl> readLegacy(File file) throws IOException {
+        List<SessionImpl> sessions = new ArrayList<>();
+        try (InputStream is = new FileInputStream(file)) {
+            Buffer buf = Buffer.buffer(Utils.readAsBytes(is));
+            for (int pos = 0; pos < buf.length(); ) {
+                SessionImpl session = new SessionImpl();
+                pos = session.readFromBuffer(pos, buf);
+                session.setAccessed();
+                sessions.add(session);
+            }
+        }
+        log.info("read {} sessions from old format {}", sessions.size(), file);
+        return sessions;
+    }
 }
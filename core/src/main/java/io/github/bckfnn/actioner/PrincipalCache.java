@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.typesafe.config.Config;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A bounded cache of loaded principals, keyed by the username. An entry is only used when the password match
+ * the one it was loaded with, which is compared by a salted digest so the passwords are not kept in memory.
+ * Successful loads are cached by username for the ttl. Failed loads are cached by username and password digest
+ * for the negative ttl, so a wrong password does not evict the principal of the user. Concurrent loads of the
+ * same username and password are coalesced into one.
+ */
+public class PrincipalCache {
+    private final ClockCache<String, Entry> cache;
+    private final ClockCache<String, Entry> failures;
+    private final long ttl;
+    private final long negativeTtl;
+    private final byte[] salt = new byte[16];
+    private final Map<String, List<Handler<AsyncResult<JsonObject>>>> pending = new ConcurrentHashMap<>();
+
+    private Counter hits = new Counter();
+    private Counter misses = new Counter();
+    private Counter coalesced = new Counter();
+
+    /**
+     * Constructor.
+     * @param maxSize max number of cached users.
+     * @param ttl milliseconds a loaded principal is cached.
+     * @param negativeTtl milliseconds a failed load is cached.
+     */
+    public PrincipalCache(int maxSize, long ttl, long negativeTtl) {
+        this.cache = new ClockCache<>(maxSize);
+        this.failures = new ClockCache<>(maxSize);
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * Constructor.
+     * @param config the <code>auth.cache</code> config.
+     */
+    public PrincipalCache(Config config) {
+        this(config.getInt("maxSize"), config.getDuration("ttl", TimeUnit.MILLISECONDS), config.getDuration("negativeTtl", TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Loader of principals, f.ex. {@link Main#loadPrincipal(String, String, Handler)}.
+     */
+    public interface Loader {
+        void load(String username, String password, Handler<AsyncResult<JsonObject>> handler);
+    }
+
+    /**
+     * Return the principal from the cache or from the loader.
+     * @param username the username.
+     * @param password the password.
+     * @param loader the loader used on a cache miss.
+     * @param handler the handler of the principal.
+     */
+    public void get(String username, String password, Loader loader, Handler<AsyncResult<JsonObject>> handler) {
+        if (username == null) {
+            loader.load(username, password, handler);
+            return;
+        }
+        String digest = digest(username, password);
+        String key = username + '\0' + digest;
+        long now = System.currentTimeMillis();
+        Entry e = cache.get(username);
+        if (e == null || !e.digest.equals(digest) || e.expires <= now) {
+            e = failures.get(key);
+        }
+        if (e != null && e.digest.equals(digest) && e.expires > now) {
+            hits.inc();
+            handler.handle(e.result());
+            return;
+        }
+
+        boolean[] first = new boolean[1];
+        pending.compute(key, (k, list) -> {
+            if (list == null) {
+                list = new ArrayList<>(1);
+                first[0] = true;
+            }
+            list.add(handler);
+            return list;
+        });
+        if (!first[0]) {
+            coalesced.inc();
+            return;
+        }
+        misses.inc();
+        try {
+            loader.load(username, password, res -> loaded(username, digest, key, res));
+        } catch (Throwable t) {
+            // Release the waiting logins, otherwise they wait for a load that never completes.
+            List<Handler<AsyncResult<JsonObject>>> waiting = pending.remove(key);
+            if (waiting == null) {
+                // Thrown by a handler after the load completed.
+                throw Utils.rethrow(t);
+            }
+            for (Handler<AsyncResult<JsonObject>> h : waiting) {
+                h.handle(Future.failedFuture(t));
+            }
+        }
+    }
+
+    private void loaded(String username, String digest, String key, AsyncResult<JsonObject> res) {
+        if (res.succeeded() && res.result() != null && ttl > 0) {
+            cache.remove(username);
+            cache.put(username, new Entry(digest, res.result().copy(), null, System.currentTimeMillis() + ttl));
+        } else if (res.failed() && negativeTtl > 0) {
+            failures.remove(key);
+            failures.put(key, new Entry(digest, null, res.cause(), System.currentTimeMillis() + negativeTtl));
+        }
+        List<Handler<AsyncResult<JsonObject>>> waiting = pending.remove(key);
+        if (waiting == null) {
+            return;
+        }
+        for (int i = 0; i < waiting.size(); i++) {
+            if (i == 0 || res.failed() || res.result() == null) {
+                waiting.get(i).handle(res);
+            } else {
+                waiting.get(i).handle(Future.succeededFuture(res.result().copy()));
+            }
+        }
+    }
+
+    /**
+     * Remove the cached principal of the user, f.ex. when the user's password or groups are changed.
+     * Cached failures are kept until the negative ttl expires.
+     * @param username the username.
+     */
+    public void invalidate(String username) {
+        cache.remove(username);
+    }
+
+    /**
+     * Use the hits, misses and coalesced counters of the registry. They are shared by all verticles.
+     * @param registry the metrics registry.
+     */
+    public void registerMetrics(MetricRegistry registry) {
+        hits = registry.counter(Metrics.PREFIX + "auth.cache.hits");
+        misses = registry.counter(Metrics.PREFIX + "auth.cache.misses");
+        coalesced = registry.counter(Metrics.PREFIX + "auth.cache.coalesced");
+    }
+
+    private String digest(String username, String password) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(salt);
+            md.update(username.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+            return StaticContent.hex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw Utils.rethrow(e);
+        }
+    }
+
+    private static class Entry {
+        final String digest;
+        final JsonObject principal;
+        final Throwable failure;
+        final long expires;
+
+        Entry(String digest, JsonObject principal, Throwable failure, long expires) {
+            this.digest = digest;
+            this.principal = principal;
+            this.failure = failure;
+            this.expires = expires;
+        }
+
+        AsyncResult<JsonObject> result() {
+            return principal != null ? Future.succeededFuture(principal.copy()) : Future.failedFuture(failure);
+        }
+    }
+}
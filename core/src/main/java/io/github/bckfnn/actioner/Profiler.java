@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.typesafe.config.Config;
+
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Opt-in profiling of the phases of the handler chain, see {@link RequestProfile}.
+ * <ul>
+ * <li>In develop mode the phases are sent in a <code>Server-Timing</code> header. Only the phases that end
+ * before the headers are written are included.
+ * <li>With a metrics registry, the duration of each phase is recorded in the histogram
+ * <code>actioner.phase.&lt;name&gt;</code>, in microseconds.
+ * <li>Every n'th request is kept in a ring buffer, served as json by {@link #samplesHandler(String)}.
+ * </ul>
+ * The profiler is shared by all verticle instances.
+ */
+public class Profiler {
+    private static Profiler instance;
+
+    private final boolean serverTiming;
+    private final int sampleRate;
+    private final AtomicReferenceArray<JsonObject> samples;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong next = new AtomicLong();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private volatile MetricRegistry registry;
+
+    /**
+     * Constructor.
+     * @param serverTiming true if the <code>Server-Timing</code> header should be sent.
+     * @param sampleRate keep every n'th request, 0 to keep none.
+     * @param sampleSize the number of requests kept.
+     */
+    public Profiler(boolean serverTiming, int sampleRate, int sampleSize) {
+        this.serverTiming = serverTiming;
+        this.sampleRate = sampleRate;
+        this.samples = new AtomicReferenceArray<>(Math.max(sampleSize, 1));
+    }
+
+    /**
+     * Constructor.
+     * @param config the <code>profiling</code> config.
+     * @param develop true in develop mode.
+     */
+    public Profiler(Config config, boolean develop) {
+        this(develop && config.getBoolean("serverTiming"), config.getInt("sampleRate"), config.getInt("sampleSize"));
+    }
+
+    /**
+     * @param config the <code>profiling</code> config.
+     * @param develop true in develop mode.
+     * @return the profiler shared by all verticles, created by the first call.
+     */
+    public static synchronized Profiler getDefault(Config config, boolean develop) {
+        if (instance == null) {
+            instance = new Profiler(config, develop);
+        }
+        return instance;
+    }
+
+    /**
+     * Record the phase durations in histograms in the registry.
+     * @param registry the registry.
+     * @return this, for chaining.
+     */
+    public Profiler setRegistry(MetricRegistry registry) {
+        this.registry = registry;
+        return this;
+    }
+
+    /**
+     * Start profiling the request.
+     * @param ctx the routing context.
+     */
+    public void start(RoutingContext ctx) {
+        RequestProfile profile = new RequestProfile();
+        ctx.put(RequestProfile.KEY, profile);
+        if (serverTiming) {
+            ctx.addHeadersEndHandler(v -> ctx.response().putHeader("Server-Timing", profile.serverTiming()));
+        }
+        ctx.addBodyEndHandler(v -> end(ctx, profile));
+    }
+
+    /**
+     * @param phase the name of the phase.
+     * @return a handler that mark the end of the phase and continue with the next handler.
+     */
+    public Handler<RoutingContext> phase(String phase) {
+        return ctx -> {
+            RequestProfile.mark(ctx, phase);
+            ctx.next();
+        };
+    }
+
+    private void end(RoutingContext ctx, RequestProfile profile) {
+        MetricRegistry registry = this.registry;
+        if (registry != null) {
+            for (int i = 0; i < profile.count(); i++) {
+                histogram(registry, profile.phase(i)).update(TimeUnit.NANOSECONDS.toMicros(profile.duration(i)));
+            }
+            histogram(registry, "total").update(TimeUnit.NANOSECONDS.toMicros(profile.elapsed()));
+        }
+        if (sampleRate > 0 && requests.incrementAndGet() % sampleRate == 0) {
+            JsonObject sample = profile.toJson(ctx.request().method().name(), ctx.request().path(), ctx.response().getStatusCode());
+            samples.set((int) (next.getAndIncrement() % samples.length()), sample);
+        }
+    }
+
+    private Histogram histogram(MetricRegistry registry, String phase) {
+        return histograms.computeIfAbsent(phase, p -> registry.histogram(Metrics.PREFIX + "phase." + p));
+    }
+
+    /**
+     * @return the sampled requests, newest first.
+     */
+    public JsonArray samples() {
+        JsonArray list = new JsonArray();
+        long n = next.get();
+        int size = samples.length();
+        for (long i = n - 1; i >= 0 && i >= n - size; i--) {
+            JsonObject sample = samples.get((int) (i % size));
+            if (sample != null) {
+                list.add(sample);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Return a handler that respond with the sampled requests as json, to a logged in user with the permission.
+     * The handler must be routed after the session handlers.
+     * @param permission the required permission.
+     * @return the handler.
+     */
+    public Handler<RoutingContext> samplesHandler(String permission) {
+        return ctx -> {
+            User user = ctx.user();
+            if (user == null) {
+                ctx.fail(401);
+                return;
+            }
+            user.isAuthorised(permission, res -> {
+                if (res.failed()) {
+                    ctx.fail(res.cause());
+                } else if (!res.result()) {
+                    ctx.fail(403);
+                } else {
+                    ctx.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json; charset=utf-8");
+                    ctx.response().end(samples().encodePrettily());
+                }
+            });
+        };
+    }
+}
@@ -16,39 +16,188 @@
 package io.github.bckfnn.actioner;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.Collections;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.MetricRegistry;
+import com.typesafe.config.Config;
 
-import io.prometheus.client.Collector.MetricFamilySamples;
 import io.prometheus.client.dropwizard.DropwizardExports;
 import io.prometheus.client.exporter.common.TextFormat;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.RoutingContext;
 
+/**
+ * Expose the registry in the prometheus text format.
+ * The metrics are rendered on a worker thread, directly into a buffer. The rendered output is shared by
+ * all verticle instances and reused for a minimum interval, so several scrapers share one render.
+ */
 public class PrometheusMetricsHandler implements Handler<RoutingContext> {
-    private final MetricRegistry registry;
+    private static Logger log = LoggerFactory.getLogger(PrometheusMetricsHandler.class);
+
+    private static final Map<MetricRegistry, Exposition> expositions = new ConcurrentHashMap<>();
+
+    private final Vertx vertx;
+    private final Exposition exposition;
+    private final long minInterval;
 
-    public PrometheusMetricsHandler(MetricRegistry registry) {
-        this.registry = registry;
+    /**
+     * Constructor.
+     * @param vertx the vertx instance.
+     * @param registry the registry.
+     * @param minInterval milliseconds a rendered output is reused, 0 to render on every scrape.
+     */
+    public PrometheusMetricsHandler(Vertx vertx, MetricRegistry registry, long minInterval) {
+        this.vertx = vertx;
+        this.exposition = expositions.computeIfAbsent(registry, Exposition::new);
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * Constructor.
+     * @param vertx the vertx instance.
+     * @param registry the registry.
+     * @param config the <code>metrics.prometheus</code> config.
+     */
+    public PrometheusMetricsHandler(Vertx vertx, MetricRegistry registry, Config config) {
+        this(vertx, registry, config.hasPath("minInterval") ? config.getDuration("minInterval", TimeUnit.MILLISECONDS) : 0);
     }
 
     @Override
     public void handle(RoutingContext ctx) {
-        ctx.response().setStatusCode(200);
-        ctx.response().putHeader(HttpHeaders.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
-        List<MetricFamilySamples> metrics = new DropwizardExports(registry).collect();
+        boolean gzip = Compressor.accepts(ctx.request(), "gzip");
+        vertx.<Buffer>executeBlocking(fut -> {
+            try {
+                fut.complete(exposition.render(minInterval, gzip));
+            } catch (IOException e) {
+                fut.fail(e);
+            }
+        }, false, ar -> {
+            HttpServerResponse response = ctx.response();
+            if (ar.failed()) {
+                log.error("failed to render metrics", ar.cause());
+                ctx.fail(ar.cause());
+                return;
+            }
+            response.setStatusCode(200);
+            response.putHeader(HttpHeaders.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+            response.putHeader("vary", "accept-encoding");
+            if (gzip) {
+                response.putHeader("content-encoding", "gzip");
+            }
+            response.end(ar.result());
+        });
+    }
+
+    /**
+     * The last rendered output of a registry.
+     */
+    static class Exposition {
+        private final DropwizardExports exports;
+        private long rendered;
+        private int lastSize = 4096;
+        private Buffer plain;
+        private Buffer gzipped;
+
+        Exposition(MetricRegistry registry) {
+            this.exports = new DropwizardExports(registry);
+        }
+
+        /**
+         * Return the output, rendered again when it is older than the min interval. Concurrent scrapes wait
+         * for the same render.
+         */
+        synchronized Buffer render(long minInterval, boolean gzip) throws IOException {
+            long now = System.currentTimeMillis();
+            if (plain == null || now - rendered >= minInterval) {
+                Buffer buf = Buffer.buffer(lastSize + lastSize / 8);
+                try (Writer writer = new BufferWriter(buf)) {
+                    TextFormat.write004(writer, Collections.enumeration(exports.collect()));
+                }
+                lastSize = buf.length();
+                plain = buf;
+                gzipped = null;
+                rendered = now;
+            }
+            if (!gzip) {
+                return plain;
+            }
+            if (gzipped == null) {
+                Buffer buf = Buffer.buffer(plain.length() / 4);
+                try (OutputStream out = new GZIPOutputStream(new BufferOutputStream(buf), 8192)) {
+                    out.write(plain.getBytes());
+                }
+                gzipped = buf;
+            }
+            return gzipped;
+        }
+    }
+
+    /**
+     * A writer that appends UTF-8 to a buffer.
+     */
+    static class BufferWriter extends Writer {
+        private final Buffer buffer;
+
+        BufferWriter(Buffer buffer) {
+            this.buffer = buffer;
+        }
 
+        @Override
+        public void write(String str) {
+            buffer.appendString(str);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            buffer.appendString(new String(cbuf, off, len));
+        }
+
+        @Override
+        public void write(int c) {
+            if (c < 0x80) {
+                buffer.appendByte((byte) c);
+            } else {
+                buffer.appendString(String.valueOf((char) c));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static class BufferOutputStream extends OutputStream {
+        private final Buffer buffer;
+
+        BufferOutputStream(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.appendByte((byte) b);
+        }
 
-        StringWriter writer = new StringWriter();
-        try {
-            TextFormat.write004(writer, Collections.enumeration(metrics));
-            ctx.response().end(writer.toString());
-        } catch (IOException e) {
-            e.printStackTrace();
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.appendBytes(b, off, len);
         }
     }
 }
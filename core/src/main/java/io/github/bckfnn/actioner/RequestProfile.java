@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.util.Arrays;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * The phases of a request, timestamped with {@link System#nanoTime()}. A phase lasts from the previous mark,
+ * or the start of the request, until its own mark.
+ * @see Profiler
+ */
+public class RequestProfile {
+    /**
+     * Key of the profile in the routing context.
+     */
+    public static final String KEY = RequestProfile.class.getName();
+
+    private final long start = System.nanoTime();
+    private final long timestamp = System.currentTimeMillis();
+    private String[] phases = new String[8];
+    private long[] times = new long[8];
+    private int count;
+
+    /**
+     * Mark the end of a phase of the request, if the request is profiled.
+     * @param ctx the routing context.
+     * @param phase the name of the phase.
+     */
+    public static void mark(RoutingContext ctx, String phase) {
+        RequestProfile profile = ctx.get(KEY);
+        if (profile != null) {
+            profile.mark(phase);
+        }
+    }
+
+    public synchronized void mark(String phase) {
+        if (count == phases.length) {
+            phases = Arrays.copyOf(phases, count * 2);
+            times = Arrays.copyOf(times, count * 2);
+        }
+        phases[count] = phase;
+        times[count] = System.nanoTime();
+        count++;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    public synchronized String phase(int i) {
+        return phases[i];
+    }
+
+    /**
+     * @param i the index of the phase.
+     * @return the duration of the phase in nanoseconds.
+     */
+    public synchronized long duration(int i) {
+        return times[i] - (i == 0 ? start : times[i - 1]);
+    }
+
+    /**
+     * @return nanoseconds since the start of the request.
+     */
+    public long elapsed() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return the phases so far as a <code>Server-Timing</code> header value, in milliseconds.
+     */
+    public synchronized String serverTiming() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(phases[i]).append(";dur=").append(millis(duration(i))).append(", ");
+        }
+        sb.append("total;dur=").append(millis(elapsed()));
+        return sb.toString();
+    }
+
+    /**
+     * @param method the request method.
+     * @param path the request path.
+     * @param status the response status.
+     * @return the profile as json, with durations in milliseconds.
+     */
+    public synchronized JsonObject toJson(String method, String path, int status) {
+        JsonArray list = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            list.add(new JsonObject().put("phase", phases[i]).put("ms", millis(duration(i))));
+        }
+        return new JsonObject()
+                .put("timestamp", timestamp)
+                .put("method", method)
+                .put("path", path)
+                .put("status", status)
+                .put("ms", millis(elapsed()))
+                .put("phases", list);
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
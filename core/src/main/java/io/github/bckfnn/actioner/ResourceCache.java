@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.typesafe.config.Config;
+
+/**
+ * A size bounded cache of static content, keyed by the normalised path.
+ * The weight of an entry is the number of bytes it holds in memory plus a fixed overhead, so content that is
+ * sent from a file is also bounded. Lookups only read a concurrent map. When the total weight exceeds the max
+ * size, entries are evicted in the order they were added. With the <code>lru</code> policy an entry that has been
+ * used since it was last considered gets a second chance, the CLOCK approximation of least-recently-used.
+ * With the <code>fifo</code> policy it is evicted.
+ */
+public class ResourceCache {
+    /**
+     * Weight of an entry besides its content: the entry, the path and the headers of the content.
+     */
+    static final long ENTRY_WEIGHT = 1024;
+
+    private final long maxSize;
+    private final boolean offHeap;
+    private final boolean secondChance;
+    private final Map<String, Entry> map = new ConcurrentHashMap<>();
+    /**
+     * The entries in the order they were added, guarded by this.
+     */
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private long size = 0;
+
+    /**
+     * Constructor.
+     * @param maxSize max number of bytes of content in the cache.
+     * @param policy the eviction policy, <code>lru</code> or <code>fifo</code>.
+     * @param offHeap true if the content should be kept in direct buffers.
+     */
+    public ResourceCache(long maxSize, String policy, boolean offHeap) {
+        this.maxSize = maxSize;
+        this.offHeap = offHeap;
+        switch (policy) {
+        case "lru":
+            secondChance = true;
+            break;
+        case "fifo":
+            secondChance = false;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown cache policy " + policy);
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param config the <code>webserver.webjars.cache</code> config.
+     */
+    public ResourceCache(Config config) {
+        this(config.getBytes("maxSize"), config.getString("policy"), config.getBoolean("offHeap"));
+    }
+
+    /**
+     * @return true if content should be kept in direct buffers.
+     */
+    public boolean offHeap() {
+        return offHeap;
+    }
+
+    public StaticContent get(String path) {
+        Entry e = map.get(path);
+        if (e == null) {
+            return null;
+        }
+        if (secondChance && !e.referenced) {
+            e.referenced = true;
+        }
+        return e.content;
+    }
+
+    /**
+     * Add the content, evicting other entries when the cache is full. When another thread has already added
+     * content for the path, that content is kept.
+     * Content that is larger than the max size is not cached.
+     * @param path the path.
+     * @param content the content.
+     */
+    public synchronized void put(String path, StaticContent content) {
+        long weight = content.weight() + ENTRY_WEIGHT;
+        if (weight > maxSize) {
+            return;
+        }
+        Entry e = new Entry(path, content, weight);
+        if (map.putIfAbsent(path, e) != null) {
+            return;
+        }
+        queue.add(e);
+        size += weight;
+        while (size > maxSize) {
+            Entry victim = queue.poll();
+            // The new entry is not evicted before the others have been considered.
+            if (victim == e || victim.referenced) {
+                victim.referenced = false;
+                queue.add(victim);
+                continue;
+            }
+            map.remove(victim.path, victim);
+            size -= victim.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        queue.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the weight of the entries in the cache.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of entries in the cache.
+     */
+    public int entries() {
+        return map.size();
+    }
+
+    private static class Entry {
+        final String path;
+        final StaticContent content;
+        final long weight;
+        volatile boolean referenced;
+
+        Entry(String path, StaticContent content, long weight) {
+            this.path = path;
+            this.content = content;
+            this.weight = weight;
+        }
+    }
+}
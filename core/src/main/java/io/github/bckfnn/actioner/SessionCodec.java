@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import io.vertx.ext.web.sstore.impl.SessionImpl;
+
+/**
+ * Encoding of the sessions persisted by the {@link PersistentLocalSessionStore}.
+ */
+public interface SessionCodec {
+    /**
+     * @param session the session.
+     * @return the encoded session.
+     */
+    byte[] encode(SessionImpl session);
+
+    /**
+     * @param data the encoded session.
+     * @return the session.
+     */
+    SessionImpl decode(byte[] data);
+
+    /**
+     * Create a codec by name.
+     * @param name <code>vertx</code> or <code>compact</code>.
+     * @return the codec.
+     */
+    static SessionCodec create(String name) {
+        switch (name) {
+        case "vertx":
+            return new VertxSessionCodec();
+        case "compact":
+            return new CompactSessionCodec();
+        default:
+            throw new IllegalArgumentException("Unknown session codec " + name);
+        }
+    }
+}
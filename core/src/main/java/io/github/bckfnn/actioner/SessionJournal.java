@@ -0,0 +1,510 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+/**
+ * A write-ahead journal of session changes. Puts and deletes are encoded by the caller and appended in batches
+ * by a single writer thread. The journal is periodically compacted into a {@link SessionSnapshot} of the live
+ * sessions, and on startup the snapshot index is loaded and the journal is replayed.
+ * <p>
+ * The snapshot is the file given as path, the journal is the same path with a <code>.journal</code> suffix.
+ * The journal is a sequence of records:
+ * <pre>
+ *   put:    1, int idLength, id, long expires, int dataLength, data
+ *   delete: 2, int idLength, id
+ *   clear:  3
+ * </pre>
+ * Older snapshots are also read: a magic number followed by put records, or without a magic number the format
+ * where all sessions were written on close, which is left to the session store to read.
+ * <p>
+ * Only one journal can have the files open, it holds a lock on the path with a <code>.lock</code> suffix.
+ */
+public class SessionJournal {
+    private static final Logger log = LoggerFactory.getLogger(SessionJournal.class);
+
+    static final int MAGIC = 0x41534a31; // "ASJ1"
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final byte CLEAR = 3;
+
+    private static final Object COMPACT = new Object();
+
+    /**
+     * When the journal is forced to disk.
+     */
+    public enum Fsync {
+        /** After every batch of records. */
+        ALWAYS,
+        /** At most once per fsync interval. */
+        INTERVAL,
+        /** Never, leave it to the operating system. */
+        NEVER
+    }
+
+    /**
+     * Receiver of the replayed records.
+     */
+    public interface Replay {
+        void put(String id, long expires, byte[] data);
+        void delete(String id);
+        void clear();
+    }
+
+    private final Path snapshot;
+    private final Path journal;
+    private final Path lockFile;
+    private final Fsync fsync;
+    private final long fsyncInterval;
+    private final long compactSize;
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+    private FileChannel channel;
+    private FileChannel lockChannel;
+    private long journalSize;
+    private long lastForce;
+    private boolean dirty;
+    private Thread writer;
+    private volatile boolean closed = true;
+
+    /**
+     * Constructor.
+     * @param path the snapshot file.
+     * @param fsync when the journal is forced to disk.
+     * @param fsyncInterval milliseconds between forces with {@link Fsync#INTERVAL}.
+     * @param compactSize journal size in bytes that trigger a compaction.
+     */
+    public SessionJournal(String path, Fsync fsync, long fsyncInterval, long compactSize) {
+        this.snapshot = new File(path).toPath();
+        this.journal = new File(path + ".journal").toPath();
+        this.lockFile = new File(path + ".lock").toPath();
+        this.fsync = fsync;
+        this.fsyncInterval = fsyncInterval;
+        this.compactSize = compactSize;
+    }
+
+    /**
+     * Constructor.
+     * @param path the snapshot file.
+     * @param config the <code>sessionJournal</code> config.
+     */
+    public SessionJournal(String path, Config config) {
+        this(path, Fsync.valueOf(config.getString("fsync").toUpperCase()),
+                config.getDuration("fsyncInterval", TimeUnit.MILLISECONDS), config.getBytes("compactSize"));
+    }
+
+    /**
+     * @return true if the snapshot exists and is in the old format.
+     * @throws IOException when the snapshot can not be read.
+     */
+    public boolean isLegacySnapshot() throws IOException {
+        if (!Files.isRegularFile(snapshot) || Files.size(snapshot) == 0) {
+            return false;
+        }
+        int magic = magic(snapshot);
+        return magic != MAGIC && magic != SessionSnapshot.MAGIC;
+    }
+
+    /**
+     * @return the first int of the file, or -1 if the file is missing or too short.
+     */
+    static int magic(Path path) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) < 4) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readInt();
+        }
+    }
+
+    /**
+     * Map the snapshot and load its index.
+     * @return the snapshot or null if there is no snapshot in the indexed format.
+     * @throws IOException when the snapshot can not be read.
+     */
+    public SessionSnapshot openSnapshot() throws IOException {
+        return SessionSnapshot.isSnapshot(snapshot) ? SessionSnapshot.open(snapshot) : null;
+    }
+
+    /**
+     * @return the snapshot file.
+     */
+    public Path snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Replay the journal, preceded by the snapshot when it is in the older format with only put records.
+     * An indexed snapshot is loaded with {@link #openSnapshot()}. A truncated record at the end of the journal,
+     * f.ex. from a crash, is ignored.
+     * @param replay the receiver of the records.
+     * @throws IOException when the files can not be read.
+     */
+    public void replay(Replay replay) throws IOException {
+        if (magic(snapshot) == MAGIC) {
+            read(snapshot, true, replay);
+        }
+        read(journal, false, replay);
+    }
+
+    /**
+     * Lock the files, open the journal for appending and start the writer thread.
+     * @throws IOException when the journal can not be opened or is opened by another journal.
+     */
+    public synchronized void open() throws IOException {
+        lock();
+        try {
+            long valid = read(journal, false, null);
+            channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Drop a truncated record at the end.
+            channel.truncate(valid);
+            channel.position(valid);
+            journalSize = valid;
+        } catch (IOException e) {
+            unlock();
+            throw e;
+        }
+        lastForce = System.currentTimeMillis();
+        closed = false;
+        writer = new Thread(this::run, "session-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Take the lock of the files. Several journals writing the same files at independent offsets, and
+     * compacting under each other, would corrupt the journal.
+     */
+    private void lock() throws IOException {
+        FileChannel ch = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = ch.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            ch.close();
+            throw new IOException("session storage " + snapshot + " is already opened by another journal");
+        }
+        lockChannel = ch;
+    }
+
+    private void unlock() {
+        if (lockChannel != null) {
+            try {
+                // Closing the channel release the lock.
+                lockChannel.close();
+            } catch (IOException e) {
+                log.warn("failed to release {}: {}", lockFile, e.toString());
+            }
+            lockChannel = null;
+        }
+    }
+
+    /**
+     * Append a put record.
+     * @param id the session id.
+     * @param expires the time the session expire.
+     * @param data the encoded session.
+     */
+    public void put(String id, long expires, byte[] data) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + idBytes.length + 8 + 4 + data.length);
+        buf.put(PUT).putInt(idBytes.length).put(idBytes).putLong(expires).putInt(data.length).put(data);
+        append(buf.array());
+    }
+
+    /**
+     * Append a delete record.
+     * @param id the session id.
+     */
+    public void delete(String id) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + idBytes.length);
+        buf.put(DELETE).putInt(idBytes.length).put(idBytes);
+        append(buf.array());
+    }
+
+    /**
+     * Append a clear record.
+     */
+    public void clear() {
+        append(new byte[] { CLEAR });
+    }
+
+    /**
+     * Request a compaction. It is done by the writer thread after the records that are already appended.
+     */
+    public void compact() {
+        if (!closed) {
+            queue.add(COMPACT);
+        }
+    }
+
+    private void append(byte[] record) {
+        if (closed) {
+            log.debug("session journal is closed, record dropped");
+            return;
+        }
+        queue.add(record);
+    }
+
+    /**
+     * Write the remaining records, compact and stop the writer thread. Blocks until done.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        queue.add(done);
+        closed = true;
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>();
+        try {
+            for (;;) {
+                Object first = fsync == Fsync.INTERVAL && dirty ? queue.poll(fsyncInterval, TimeUnit.MILLISECONDS) : queue.take();
+                if (first == null) {
+                    force();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, 1024);
+
+                List<ByteBuffer> records = new ArrayList<>(batch.size());
+                for (Object o : batch) {
+                    if (o instanceof byte[]) {
+                        records.add(ByteBuffer.wrap((byte[]) o));
+                    } else {
+                        write(records);
+                        if (o == COMPACT) {
+                            doCompact();
+                        } else if (o instanceof CountDownLatch) {
+                            doCompact();
+                            channel.close();
+                            unlock();
+                            ((CountDownLatch) o).countDown();
+                            return;
+                        }
+                    }
+                }
+                write(records);
+                batch.clear();
+                if (fsync == Fsync.ALWAYS || (fsync == Fsync.INTERVAL && System.currentTimeMillis() - lastForce >= fsyncInterval)) {
+                    force();
+                }
+                if (journalSize > compactSize) {
+                    doCompact();
+                }
+            }
+        } catch (Throwable e) {
+            log.error("session journal failed, sessions are no longer persisted", e);
+            closed = true;
+            unlock();
+            batch.addAll(queue);
+            for (Object o : batch) {
+                if (o instanceof CountDownLatch) {
+                    ((CountDownLatch) o).countDown();
+                }
+            }
+        }
+    }
+
+    private void write(List<ByteBuffer> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] bufs = records.toArray(new ByteBuffer[records.size()]);
+        long remaining = 0;
+        for (ByteBuffer b : bufs) {
+            remaining += b.remaining();
+        }
+        journalSize += remaining;
+        while (remaining > 0) {
+            remaining -= channel.write(bufs);
+        }
+        records.clear();
+        dirty = true;
+    }
+
+    private void force() throws IOException {
+        if (dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+        lastForce = System.currentTimeMillis();
+    }
+
+    /**
+     * Write the live sessions of the snapshot and the journal to a new snapshot and truncate the journal.
+     */
+    private void doCompact() throws IOException {
+        channel.force(false);
+        dirty = false;
+
+        Map<String, Record> live = new LinkedHashMap<>();
+        Replay collect = new Replay() {
+            @Override
+            public void put(String id, long expires, byte[] data) {
+                live.put(id, new Record(expires, data));
+            }
+
+            @Override
+            public void delete(String id) {
+                live.remove(id);
+            }
+
+            @Override
+            public void clear() {
+                live.clear();
+            }
+        };
+        int magic = magic(snapshot);
+        if (magic == SessionSnapshot.MAGIC) {
+            SessionSnapshot snap = SessionSnapshot.open(snapshot);
+            for (Map.Entry<String, SessionSnapshot.Entry> e : snap.index().entrySet()) {
+                live.put(e.getKey(), new Record(e.getValue().expires, snap.data(e.getValue())));
+            }
+        } else if (magic == MAGIC) {
+            read(snapshot, true, collect);
+        }
+        read(journal, false, collect);
+
+        long now = System.currentTimeMillis();
+        for (Iterator<Record> it = live.values().iterator(); it.hasNext(); ) {
+            if (it.next().expires < now) {
+                it.remove();
+            }
+        }
+        SessionSnapshot.write(snapshot, live);
+
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+        journalSize = 0;
+        log.debug("compacted session journal, {} live sessions", live.size());
+    }
+
+    /**
+     * Read the records of a file.
+     * @return the length of the valid records.
+     */
+    private static long read(Path path, boolean hasMagic, Replay replay) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return 0;
+        }
+        long size = Files.size(path);
+        long pos = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 65536))) {
+            if (hasMagic) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a session snapshot: " + path);
+                }
+                pos = 4;
+            }
+            for (;;) {
+                int op = in.read();
+                if (op < 0) {
+                    break;
+                }
+                long len = 1;
+                if (op == CLEAR) {
+                    if (replay != null) {
+                        replay.clear();
+                    }
+                } else if (op == PUT || op == DELETE) {
+                    byte[] idBytes = readBytes(in, size);
+                    String id = new String(idBytes, StandardCharsets.UTF_8);
+                    len += 4 + idBytes.length;
+                    if (op == PUT) {
+                        long expires = in.readLong();
+                        byte[] data = readBytes(in, size);
+                        len += 8 + 4 + data.length;
+                        if (replay != null) {
+                            replay.put(id, expires, data);
+                        }
+                    } else if (replay != null) {
+                        replay.delete(id);
+                    }
+                } else {
+                    log.warn("corrupt session record {} at {} in {}", op, pos, path);
+                    break;
+                }
+                pos += len;
+            }
+        } catch (EOFException e) {
+            log.info("ignoring truncated session record at {} in {}", pos, path);
+        }
+        return pos;
+    }
+
+    private static byte[] readBytes(DataInputStream in, long size) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > size) {
+            throw new EOFException();
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * An encoded session and the time it expire.
+     */
+    public static class Record {
+        final long expires;
+        final byte[] data;
+
+        Record(long expires, byte[] data) {
+            this.expires = expires;
+            this.data = data;
+        }
+    }
+}
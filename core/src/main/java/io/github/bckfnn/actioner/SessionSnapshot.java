@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A memory-mapped snapshot of sessions with an index in front, so the index can be loaded at startup and
+ * each session decoded when it is first used.
+ * <pre>
+ *   int magic, int count
+ *   count * (int idLength, id, long expires, int offset, int length)
+ *   session data
+ * </pre>
+ */
+public class SessionSnapshot {
+    static final int MAGIC = 0x41534a32; // "ASJ2"
+
+    private final MappedByteBuffer map;
+    private final Map<String, Entry> index;
+
+    private SessionSnapshot(MappedByteBuffer map, Map<String, Entry> index) {
+        this.map = map;
+        this.index = Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * Map the snapshot and read its index.
+     * @param path the snapshot file.
+     * @return the snapshot.
+     * @throws IOException when the file is not a snapshot.
+     */
+    public static SessionSnapshot open(Path path) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Session snapshot too large: " + path);
+            }
+            map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        try {
+            if (map.getInt() != MAGIC) {
+                throw new IOException("Not a session snapshot: " + path);
+            }
+            int count = map.getInt();
+            Map<String, Entry> index = new LinkedHashMap<>(count * 4 / 3 + 1);
+            byte[] idBytes = new byte[64];
+            for (int i = 0; i < count; i++) {
+                int idLen = map.getInt();
+                if (idLen > idBytes.length) {
+                    idBytes = new byte[idLen];
+                }
+                map.get(idBytes, 0, idLen);
+                String id = new String(idBytes, 0, idLen, StandardCharsets.UTF_8);
+                long expires = map.getLong();
+                int offset = map.getInt();
+                int length = map.getInt();
+                if (offset < 0 || length < 0 || offset + length > map.limit()) {
+                    throw new IOException("Corrupt session snapshot: " + path);
+                }
+                index.put(id, new Entry(expires, offset, length));
+            }
+            return new SessionSnapshot(map, index);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt session snapshot: " + path, e);
+        }
+    }
+
+    /**
+     * @param path the file.
+     * @return true if the file is a snapshot in this format.
+     * @throws IOException when the file can not be read.
+     */
+    public static boolean isSnapshot(Path path) throws IOException {
+        return SessionJournal.magic(path) == MAGIC;
+    }
+
+    /**
+     * @return the index of session id to entry.
+     */
+    public Map<String, Entry> index() {
+        return index;
+    }
+
+    /**
+     * @param entry an entry of this snapshot.
+     * @return the encoded session.
+     */
+    public byte[] data(Entry entry) {
+        byte[] data = new byte[entry.length];
+        ByteBuffer buf = map.duplicate();
+        buf.position(entry.offset);
+        buf.get(data);
+        return data;
+    }
+
+    /**
+     * Write a snapshot to a temporary file and move it in place.
+     * @param path the snapshot file.
+     * @param live the session id and encoded sessions.
+     * @throws IOException when the file can not be written.
+     */
+    public static void write(Path path, Map<String, SessionJournal.Record> live) throws IOException {
+        Map<String, byte[]> ids = new LinkedHashMap<>();
+        int indexSize = 8;
+        for (String id : live.keySet()) {
+            byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+            ids.put(id, idBytes);
+            indexSize += 4 + idBytes.length + 8 + 4 + 4;
+        }
+        ByteBuffer index = ByteBuffer.allocate(indexSize);
+        index.putInt(MAGIC).putInt(live.size());
+        long offset = indexSize;
+        for (Map.Entry<String, SessionJournal.Record> e : live.entrySet()) {
+            byte[] idBytes = ids.get(e.getKey());
+            int length = e.getValue().data.length;
+            if (offset + length > Integer.MAX_VALUE) {
+                throw new IOException("Session snapshot too large: " + path);
+            }
+            index.putInt(idBytes.length).put(idBytes).putLong(e.getValue().expires).putInt((int) offset).putInt(length);
+            offset += length;
+        }
+        index.flip();
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch), 65536);
+            out.write(index.array(), 0, index.limit());
+            for (SessionJournal.Record r : live.values()) {
+                out.write(r.data);
+            }
+            out.flush();
+            ch.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The position of a session in the snapshot.
+     */
+    public static class Entry {
+        final long expires;
+        final int offset;
+        final int length;
+
+        Entry(long expires, int offset, int length) {
+            this.expires = expires;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return the time the session expire.
+         */
+        public long expires() {
+            return expires;
+        }
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Immutable content of a static resource, together with the validators used for conditional requests
+ * and an optional precompressed gzip variant. Byte ranges are served directly from the content.
+ * Instances are shared between requests (and event loops), so the data buffer must never be modified.
+ */
+public class StaticContent {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The IMF-fixdate format of HTTP dates, with a two digit day.
+     */
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    /**
+     * Cache-control for fingerprinted urls, the content of such an url can never change.
+     */
+    public static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    /**
+     * Number of hash characters used in a fingerprinted url.
+     */
+    static final int FINGERPRINT_LENGTH = 12;
+
+    /**
+     * Requests with more ranges than this are answered with the full content.
+     */
+    static final int MAX_RANGES = 16;
+
+    /**
+     * Match a fingerprinted path like <code>css/bootstrap.0123456789ab.css</code>.
+     */
+    static final Pattern FINGERPRINTED = Pattern.compile("(.*)\\.([0-9a-f]{" + FINGERPRINT_LENGTH + "})(\\.[^./]+)");
+
+    private final Buffer data;
+    private final Buffer gzip;
+    private final File file;
+    private final long length;
+    private final String lengthStr;
+    private final String contentType;
+    private final String hash;
+    private final String etag;
+    private final String gzipEtag;
+    private final long lastModified;
+    private final String lastModifiedStr;
+
+    /**
+     * Constructor.
+     * @param bytes the content.
+     * @param contentType the mime type of the content.
+     * @param lastModified the modification time in milliseconds.
+     */
+    public StaticContent(byte[] bytes, String contentType, long lastModified) {
+        this(bytes, contentType, lastModified, null);
+    }
+
+    /**
+     * Constructor.
+     * @param bytes the content.
+     * @param contentType the mime type of the content.
+     * @param lastModified the modification time in milliseconds.
+     * @param compressor the compressor for the gzip variant, or null.
+     */
+    public StaticContent(byte[] bytes, String contentType, long lastModified, Compressor compressor) {
+        this(bytes, contentType, lastModified, compressor, false);
+    }
+
+    /**
+     * Constructor.
+     * @param bytes the content.
+     * @param contentType the mime type of the content.
+     * @param lastModified the modification time in milliseconds.
+     * @param compressor the compressor for the gzip variant, or null.
+     * @param offHeap true if the content should be kept in direct buffers.
+     */
+    public StaticContent(byte[] bytes, String contentType, long lastModified, Compressor compressor, boolean offHeap) {
+        this(bytes, compressor != null ? compressor.gzip(bytes, contentType) : null, contentType, lastModified, offHeap);
+    }
+
+    /**
+     * Constructor for content where the gzip variant is already compressed.
+     * @param bytes the content.
+     * @param compressed the gzip variant or null.
+     * @param contentType the mime type of the content.
+     * @param lastModified the modification time in milliseconds.
+     * @param offHeap true if the content should be kept in direct buffers.
+     */
+    public StaticContent(byte[] bytes, byte[] compressed, String contentType, long lastModified, boolean offHeap) {
+        this.data = offHeap ? directBuffer(bytes) : Buffer.buffer(bytes);
+        this.file = null;
+        this.length = bytes.length;
+        this.lengthStr = String.valueOf(length);
+        this.contentType = contentType;
+        this.hash = hash(bytes);
+        this.etag = "\"" + hash + "\"";
+        this.gzip = compressed == null ? null : offHeap ? directBuffer(compressed) : Buffer.buffer(compressed);
+        this.gzipEtag = "\"" + hash + "-gz\"";
+        // http dates only have second precision.
+        this.lastModified = lastModified - lastModified % 1000;
+        this.lastModifiedStr = formatDate(this.lastModified);
+    }
+
+    /**
+     * Constructor for content that is send directly from a file with sendFile, without being held in memory.
+     * The file is not read, so the hash is computed from the size and modification time of the file.
+     * @param file the file.
+     * @param contentType the mime type of the content.
+     */
+    public StaticContent(File file, String contentType) {
+        this.data = null;
+        this.gzip = null;
+        this.file = file;
+        this.length = file.length();
+        this.lengthStr = String.valueOf(length);
+        this.contentType = contentType;
+        long lastModified = file.lastModified();
+        this.hash = hash((length + ":" + lastModified).getBytes(StandardCharsets.UTF_8));
+        this.etag = "\"" + hash + "\"";
+        this.gzipEtag = etag;
+        this.lastModified = lastModified - lastModified % 1000;
+        this.lastModifiedStr = formatDate(this.lastModified);
+    }
+
+    /**
+     * @return the content or null if the content is send from a file.
+     */
+    public Buffer data() {
+        return data;
+    }
+
+    /**
+     * @return the file or null if the content is held in memory.
+     */
+    public File file() {
+        return file;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return the number of bytes held in memory by this content.
+     */
+    public long weight() {
+        return (data != null ? data.length() : 0) + (gzip != null ? gzip.length() : 0);
+    }
+
+    /**
+     * @return the gzip variant or null if there is none.
+     */
+    public Buffer gzip() {
+        return gzip;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the hex encoded content hash.
+     */
+    public String hash() {
+        return hash;
+    }
+
+    /**
+     * @return the fingerprint used in fingerprinted urls.
+     */
+    public String fingerprint() {
+        return hash.substring(0, FINGERPRINT_LENGTH);
+    }
+
+    /**
+     * @return the strong etag, including the quotes.
+     */
+    public String etag() {
+        return etag;
+    }
+
+    public long lastModified() {
+        return lastModified;
+    }
+
+    public String lastModifiedStr() {
+        return lastModifiedStr;
+    }
+
+    /**
+     * Send the content as the response, using the gzip variant if the request accept it.
+     * HEAD requests get the headers only, and single and multiple byte ranges are supported for the identity encoding.
+     * @param ctx the routing context.
+     * @param cacheControl the cache-control header, or null if no caching headers should be send.
+     */
+    public void send(RoutingContext ctx, String cacheControl) {
+        HttpServerRequest request = ctx.request();
+        HttpServerResponse response = ctx.response();
+        MultiMap headers = response.headers();
+
+        boolean head = request.method() == HttpMethod.HEAD;
+        String range = request.headers().get("range");
+        boolean useGzip = gzip != null && range == null && Compressor.accepts(request, "gzip");
+        String tag = useGzip ? gzipEtag : etag;
+
+        headers.set(HttpHeaders.CONTENT_TYPE, contentType);
+        headers.set("accept-ranges", "bytes");
+        if (gzip != null) {
+            headers.set("vary", "accept-encoding");
+        }
+        if (cacheControl != null) {
+            headers.set("cache-control", cacheControl);
+            headers.set("last-modified", lastModifiedStr);
+            headers.set("etag", tag);
+
+            if (isNotModified(request, tag)) {
+                response.setStatusCode(304).end();
+                return;
+            }
+        }
+
+        if (range != null && matchIfRange(request.headers().get("if-range"))) {
+            List<long[]> ranges = parseRanges(range, length);
+            if (ranges != null && ranges.isEmpty()) {
+                headers.set("content-range", "bytes */" + length);
+                response.setStatusCode(416).end();
+                return;
+            }
+            if (ranges != null && (ranges.size() == 1 || data != null)) {
+                sendRanges(ctx, ranges, head);
+                return;
+            }
+        }
+
+        if (useGzip) {
+            headers.set("content-encoding", "gzip");
+            headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(gzip.length()));
+            end(response, head ? null : gzip);
+        } else if (file != null) {
+            headers.set(HttpHeaders.CONTENT_LENGTH, lengthStr);
+            if (head) {
+                response.end();
+            } else {
+                response.sendFile(file.getPath());
+            }
+        } else {
+            headers.set(HttpHeaders.CONTENT_LENGTH, lengthStr);
+            end(response, head ? null : data);
+        }
+    }
+
+    private static void end(HttpServerResponse response, Buffer body) {
+        if (body == null) {
+            response.end();
+        } else {
+            response.end(body);
+        }
+    }
+
+    private void sendRanges(RoutingContext ctx, List<long[]> ranges, boolean head) {
+        HttpServerResponse response = ctx.response();
+        MultiMap headers = response.headers();
+        response.setStatusCode(206);
+
+        if (ranges.size() == 1) {
+            long start = ranges.get(0)[0];
+            int len = (int) (ranges.get(0)[1] - start + 1);
+            headers.set("content-range", "bytes " + start + "-" + ranges.get(0)[1] + "/" + length);
+            headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(len));
+            if (head) {
+                response.end();
+            } else if (data != null) {
+                response.end(data.slice((int) start, (int) start + len));
+            } else {
+                readFile(ctx, start, len);
+            }
+            return;
+        }
+
+        String boundary = hash;
+        Buffer body = Buffer.buffer();
+        for (long[] r : ranges) {
+            body.appendString("\r\n--" + boundary + "\r\n");
+            body.appendString("Content-Type: " + contentType + "\r\n");
+            body.appendString("Content-Range: bytes " + r[0] + "-" + r[1] + "/" + length + "\r\n\r\n");
+            body.appendBuffer(data, (int) r[0], (int) (r[1] - r[0] + 1));
+        }
+        body.appendString("\r\n--" + boundary + "--\r\n");
+        headers.set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length()));
+        end(response, head ? null : body);
+    }
+
+    private void readFile(RoutingContext ctx, long start, int len) {
+        ctx.vertx().fileSystem().open(file.getPath(), new OpenOptions().setRead(true).setWrite(false).setCreate(false), res -> {
+            if (res.failed()) {
+                ctx.fail(res.cause());
+                return;
+            }
+            AsyncFile asyncFile = res.result();
+            asyncFile.read(Buffer.buffer(len), 0, start, len, read -> {
+                asyncFile.close();
+                if (read.failed()) {
+                    ctx.fail(read.cause());
+                } else {
+                    ctx.response().end(read.result());
+                }
+            });
+        });
+    }
+
+    /**
+     * Return true if the If-Range header is missing or match the content, in which case the Range header should be used.
+     */
+    private boolean matchIfRange(String ifRange) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Strong comparison, weak etags never match.
+            return ifRange.equals(etag);
+        }
+        return parseDate(ifRange) == lastModified;
+    }
+
+    /**
+     * Parse a Range header.
+     * @param header the header value.
+     * @param length the length of the content.
+     * @return the list of satisfiable ranges as [first, last] byte positions, an empty list if none are satisfiable
+     * or null if the header is invalid and should be ignored.
+     */
+    static List<long[]> parseRanges(String header, long length) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        for (String spec : header.substring(6).split(",")) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+                    if (end < start) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start >= length) {
+                continue;
+            }
+            ranges.add(new long[] { start, Math.min(end, length - 1) });
+            if (ranges.size() > MAX_RANGES) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Insert the fingerprint of the content in front of the extension of the path.
+     * @param path the path, f.ex. <code>css/bootstrap.css</code>
+     * @return the fingerprinted path, f.ex. <code>css/bootstrap.0123456789ab.css</code>
+     */
+    public String fingerprinted(String path) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            return path;
+        }
+        return path.substring(0, dot) + "." + fingerprint() + path.substring(dot);
+    }
+
+    /**
+     * Match a path against the fingerprinted pattern.
+     * @param path the path.
+     * @return a matcher where group 1 + group 3 is the plain path and group 2 the fingerprint, or null if the path is not fingerprinted.
+     */
+    public static Matcher matchFingerprinted(String path) {
+        Matcher m = FINGERPRINTED.matcher(path);
+        return m.matches() ? m : null;
+    }
+
+    /**
+     * Return true if the conditional headers of the request match this content.
+     * If-None-Match takes precedence over If-Modified-Since.
+     * @param request the request.
+     * @return true when a 304 response can be send.
+     */
+    public boolean isNotModified(HttpServerRequest request) {
+        return isNotModified(request, etag);
+    }
+
+    private boolean isNotModified(HttpServerRequest request, String etag) {
+        String ifNoneMatch = request.headers().get("if-none-match");
+        if (ifNoneMatch != null) {
+            return matchEtag(ifNoneMatch, etag);
+        }
+        String ifModifiedSince = request.headers().get("if-modified-since");
+        if (ifModifiedSince != null) {
+            long since = parseDate(ifModifiedSince);
+            return since >= 0 && lastModified <= since;
+        }
+        return false;
+    }
+
+    /**
+     * Weak comparison of an etag against a If-None-Match header value.
+     * @param header the list of etags from the header.
+     * @param etag the etag of the content.
+     * @return true if one of the etags match.
+     */
+    static boolean matchEtag(String header, String etag) {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String formatDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    static long parseDate(String date) {
+        try {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    static Buffer directBuffer(byte[] bytes) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(bytes.length);
+        bb.put(bytes);
+        bb.flip();
+        return Buffer.buffer(Unpooled.wrappedBuffer(bb));
+    }
+
+    static String hash(byte[] bytes) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            return hex(md.digest(bytes));
+        } catch (Exception e) {
+            throw Utils.rethrow(e);
+        }
+    }
+
+    static String hex(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
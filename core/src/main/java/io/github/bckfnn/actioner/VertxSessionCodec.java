@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.ext.web.sstore.impl.SessionImpl;
+
+/**
+ * The session format of vertx, {@link SessionImpl#writeToBuffer(Buffer)}.
+ */
+public class VertxSessionCodec implements SessionCodec {
+    @Override
+    public byte[] encode(SessionImpl session) {
+        Buffer buf = Buffer.buffer();
+        session.writeToBuffer(buf);
+        return buf.getBytes();
+    }
+
+    @Override
+    public SessionImpl decode(byte[] data) {
+        SessionImpl session = new SessionImpl();
+        session.readFromBuffer(0, Buffer.buffer(data));
+        return session;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Index of the webjars on the classpath: artifact &rarr; version &rarr; resource root.
+ * The classpath is scanned once, artifacts that are not found by the scan are looked up on first use
+ * and the result, also a negative one, is remembered.
+ */
+public class WebjarRegistry {
+    private static final Logger log = LoggerFactory.getLogger(WebjarRegistry.class);
+
+    static final String[] folders = { "org.webjars", "org.webjars.npm", "org.webjars.bower"  };
+
+    private static WebjarRegistry instance;
+
+    private final ClassLoader classLoader;
+    private final Map<String, Map<String, String>> index = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> missing = new ConcurrentHashMap<>();
+    private Counter hits = new Counter();
+    private Counter misses = new Counter();
+
+    /**
+     * Constructor.
+     * @param classLoader the class loader to scan.
+     */
+    public WebjarRegistry(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+        reload();
+    }
+
+    /**
+     * @return the registry shared by all verticles.
+     */
+    public static synchronized WebjarRegistry getDefault() {
+        if (instance == null) {
+            instance = new WebjarRegistry(WebjarRegistry.class.getClassLoader());
+        }
+        return instance;
+    }
+
+    /**
+     * Rescan the classpath. Used in develop mode where webjars can be changed while running.
+     */
+    public synchronized void reload() {
+        Map<String, Map<String, String>> found = new LinkedHashMap<>();
+        for (String folder : folders) {
+            try {
+                Enumeration<URL> urls = classLoader.getResources("META-INF/maven/" + folder);
+                while (urls.hasMoreElements()) {
+                    scan(urls.nextElement(), folder, found);
+                }
+            } catch (IOException e) {
+                log.warn("failed to scan webjars in {}: {}", folder, e.toString());
+            }
+        }
+        index.clear();
+        missing.clear();
+        index.putAll(found);
+        log.debug("found {} webjars", found.size());
+    }
+
+    /**
+     * Return the version of the artifact.
+     * @param artifact the artifact id of the webjar.
+     * @return the version or null if the webjar is not on the classpath.
+     */
+    public String version(String artifact) {
+        Map<String, String> versions = index.get(artifact);
+        if (versions != null) {
+            hits.inc();
+            return versions.keySet().iterator().next();
+        }
+        misses.inc();
+        if (missing.containsKey(artifact)) {
+            return null;
+        }
+        versions = lookup(artifact);
+        if (versions == null) {
+            missing.put(artifact, Boolean.TRUE);
+            return null;
+        }
+        index.put(artifact, versions);
+        return versions.keySet().iterator().next();
+    }
+
+    /**
+     * Return the path of a file in a webjar, relative to the webjars url.
+     * @param artifact the artifact id of the webjar.
+     * @param file the file in the webjar.
+     * @return the path as <code>artifact/version/file</code>.
+     */
+    public String path(String artifact, String file) {
+        String version = version(artifact);
+        if (version == null) {
+            log.error("missing webjar artifact {} searched as {}", artifact, Arrays.asList(folders));
+            return artifact + "/v0/" + file;
+        }
+        return artifact + "/" + version + "/" + file;
+    }
+
+    /**
+     * @return the index of artifact &rarr; version &rarr; resource root.
+     */
+    public Map<String, Map<String, String>> index() {
+        return Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * Register the index size and the lookup counters in the registry.
+     * @param registry the metrics registry.
+     */
+    public void registerMetrics(MetricRegistry registry) {
+        hits = Metrics.register(registry, "webjars.hits", hits);
+        misses = Metrics.register(registry, "webjars.misses", misses);
+        Metrics.register(registry, "webjars.artifacts", (Gauge<Integer>) index::size);
+    }
+
+    private void scan(URL url, String folder, Map<String, Map<String, String>> found) throws IOException {
+        String prefix = "META-INF/maven/" + folder + "/";
+        if (url.getProtocol().equals("jar")) {
+            URLConnection conn = url.openConnection();
+            JarFile jar = ((JarURLConnection) conn).getJarFile();
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                JarEntry entry = e.nextElement();
+                String name = entry.getName();
+                if (name.startsWith(prefix) && name.endsWith("/pom.properties")) {
+                    try (InputStream is = jar.getInputStream(entry)) {
+                        add(is, found);
+                    }
+                }
+            }
+        } else if (url.getProtocol().equals("file")) {
+            File[] dirs;
+            try {
+                dirs = new File(url.toURI()).listFiles();
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+            if (dirs == null) {
+                return;
+            }
+            for (File dir : dirs) {
+                File pom = new File(dir, "pom.properties");
+                if (pom.isFile()) {
+                    try (InputStream is = pom.toURI().toURL().openStream()) {
+                        add(is, found);
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(InputStream is, Map<String, Map<String, String>> found) throws IOException {
+        Properties props = new Properties();
+        props.load(is);
+        String artifact = props.getProperty("artifactId");
+        String version = props.getProperty("version");
+        if (artifact != null && version != null) {
+            found.computeIfAbsent(artifact, k -> new LinkedHashMap<>()).put(version, root(artifact, version));
+        }
+    }
+
+    private Map<String, String> lookup(String artifact) {
+        try {
+            for (String folder : folders) {
+                String propFilename = "META-INF/maven/" + folder + "/" + artifact + "/pom.properties";
+                Enumeration<URL> urls = classLoader.getResources(propFilename);
+                if (!urls.hasMoreElements()) {
+                    continue;
+                }
+                Properties props = new Properties();
+                try (InputStream is = urls.nextElement().openStream()) {
+                    props.load(is);
+                }
+                String version = props.getProperty("version");
+                Map<String, String> versions = new LinkedHashMap<>();
+                versions.put(version, root(artifact, version));
+                return versions;
+            }
+        } catch (IOException e) {
+            throw Utils.rethrow(e);
+        }
+        return null;
+    }
+
+    private static String root(String artifact, String version) {
+        return "/META-INF/resources/webjars/" + artifact + "/" + version;
+    }
+}
@@ -15,27 +15,23 @@
  */
 package io.github.bckfnn.actioner;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.text.DateFormat;
-import java.util.Date;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.regex.Matcher;
 
 import javax.activation.MimetypesFileTypeMap;
 
 import io.vertx.core.Handler;
-import io.vertx.core.MultiMap;
-import io.vertx.core.buffer.Buffer;
-import io.vertx.core.http.HttpHeaders;
-import io.vertx.core.http.HttpServerRequest;
 import io.vertx.ext.web.RoutingContext;
 
 /**
  * Handler for serving data from a webjar.
  */
 public class WebjarsHandler implements Handler<RoutingContext> {
-    private final DateFormat dateTimeFormatter = io.vertx.ext.web.impl.Utils.createRFC1123DateTimeFormatter();
-
-    private Date lastReboot = new Date(System.currentTimeMillis());
-    private String lastRebootStr = dateTimeFormatter.format(lastReboot);
+    private long lastReboot = System.currentTimeMillis();
 
     /**
      * Default max age for cache headers
@@ -44,6 +40,9 @@ public class WebjarsHandler implements Handler<RoutingContext> {
 
     private boolean cachingEnabled = true;
     private long maxAgeSeconds = DEFAULT_MAX_AGE_SECONDS; // One day
+    private Compressor compressor;
+    private boolean fingerprinting = false;
+    private ResourceCache cache = new ResourceCache(32 * 1024 * 1024, "lru", false);
 
     @Override
     public void handle(RoutingContext ctx) {
@@ -52,52 +51,105 @@ public class WebjarsHandler implements Handler<RoutingContext> {
         String prefix = ctx.currentRoute().getPath();
         path = path.substring(prefix.length());
 
-        InputStream stream = loadResource(path);
-        if (stream != null) {
-            MultiMap headers = ctx.response().headers();
-
-            headers.set(HttpHeaders.CONTENT_TYPE, MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(path));
-            if (cachingEnabled) {
-                // We use cache-control and last-modified
-                // We *do not use* etags and expires (since they do the same thing - redundant)
-                headers.set("cache-control", "public, max-age=" + maxAgeSeconds);
-                headers.set("last-modified", lastRebootStr);
-            }
-
-            try {
-                if (cachingEnabled) {
-                    if (shouldUseCached(ctx.request())) {
-                        ctx.response().setStatusCode(304).end();
-                        return;
-                    }
+        StaticContent content = null;
+        String cacheControl = cachingEnabled ? "public, max-age=" + maxAgeSeconds : null;
+        try {
+            Matcher m = StaticContent.matchFingerprinted(path);
+            if (m != null) {
+                content = loadResource(m.group(1) + m.group(3));
+                if (content != null && cachingEnabled && content.fingerprint().equals(m.group(2))) {
+                    cacheControl = StaticContent.IMMUTABLE;
                 }
-                ctx.response().end(Buffer.factory.buffer(Utils.readAsBytes(stream)));
-            } catch (Exception e) {
-                Utils.rethrow(e);
             }
+            if (content == null) {
+                content = loadResource(path);
+            }
+        } catch (Exception e) {
+            ctx.fail(e);
+            return;
+        }
+        if (content != null) {
+            content.send(ctx, cacheControl);
         } else {
             ctx.next();
         }
     }
 
+    /**
+     * Return the path with the content fingerprint inserted, when fingerprinting is enabled.
+     * @param path the path below the webjars url, f.ex. <code>bootstrap/3.3.6/css/bootstrap.css</code>.
+     * @return the fingerprinted path, or the path itself.
+     */
+    public String fingerprint(String path) {
+        if (!fingerprinting) {
+            return path;
+        }
+        try {
+            StaticContent content = loadResource(path);
+            return content != null ? content.fingerprinted(path) : path;
+        } catch (IOException e) {
+            throw Utils.rethrow(e);
+        }
+    }
+
+    public WebjarsHandler setFingerprinting(boolean fingerprinting) {
+        this.fingerprinting = fingerprinting;
+        return this;
+    }
+
     public WebjarsHandler setCachingEnabled(boolean enabled) {
         this.cachingEnabled = enabled;
         return this;
     }
 
-    private InputStream loadResource(String path) {
-        return getClass().getResourceAsStream("/META-INF/resources/webjars/" + path);
+    public WebjarsHandler setCompressor(Compressor compressor) {
+        this.compressor = compressor;
+        cache.clear();
+        return this;
+    }
+
+    /**
+     * Use the cache for resolved resources.
+     * @param cache the cache.
+     * @return this, for chaining.
+     */
+    public WebjarsHandler setCache(ResourceCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    private StaticContent loadResource(String path) throws IOException {
+        StaticContent content = cache.get(path);
+        if (content != null) {
+            return content;
+        }
+        URL url = getClass().getResource("/META-INF/resources/webjars/" + path);
+        if (url == null) {
+            return null;
+        }
+        String contentType = MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(path);
+        File file = file(url);
+        if (file != null && (compressor == null || !compressor.shouldCompress(contentType, (int) Math.min(file.length(), Integer.MAX_VALUE)))) {
+            // Let the kernel copy the file.
+            content = new StaticContent(file, contentType);
+        } else {
+            try (InputStream stream = url.openStream()) {
+                content = new StaticContent(Utils.readAsBytes(stream), contentType, lastReboot, compressor, cache.offHeap());
+            }
+        }
+        cache.put(path, content);
+        return content;
     }
 
-    // return true if there are conditional headers present and they match what is in the entry
-    boolean shouldUseCached(HttpServerRequest request) throws Exception {
-        String ifModifiedSince = request.headers().get("if-modified-since");
-        if (ifModifiedSince == null) {
-            // Not a conditional request
-            return false;
+    private static File file(URL url) {
+        if (!url.getProtocol().equals("file")) {
+            return null;
+        }
+        try {
+            File file = new File(url.toURI());
+            return file.isFile() ? file : null;
+        } catch (URISyntaxException e) {
+            return null;
         }
-        Date ifModifiedSinceDate = dateTimeFormatter.parse(ifModifiedSince);
-        boolean modifiedSince = lastReboot.getTime() > ifModifiedSinceDate.getTime();
-        return !modifiedSince;
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class AcceptLanguageHandlerTest {
+    private static List<Locale> locales(String... tags) {
+        List<Locale> ret = new ArrayList<>();
+        for (String tag : tags) {
+            ret.add(Locale.forLanguageTag(tag));
+        }
+        return ret;
+    }
+
+    private static List<Locale> parse(String header) {
+        return AcceptLanguageHandler.getLocales(header);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(locales(), parse(null));
+        assertEquals(locales(), parse(""));
+        assertEquals(locales(), parse(" , ,\t"));
+    }
+
+    @Test
+    public void testOrder() {
+        assertEquals(locales("da", "en-GB", "en"), parse("da, en-gb;q=0.8, en;q=0.7"));
+        assertEquals(locales("de", "fr", "en"), parse("fr;q=0.5, de, en;q=0.5"));
+        assertEquals(locales("en", "fr", "de"), parse("fr;q=0.501, de;q=0.5, en;q=0.502"));
+        assertEquals(locales("en-US"), parse("EN_us"));
+    }
+
+    @Test
+    public void testZero() {
+        assertEquals(locales("en"), parse("en, fr;q=0"));
+        assertEquals(locales("en"), parse("en, fr;q=0.000"));
+        assertEquals(locales(), parse("fr;Q=0"));
+    }
+
+    @Test
+    public void testStar() {
+        assertEquals(locales("en"), parse("*, en;q=0.5"));
+        assertEquals(locales(), parse("*;q=0.5"));
+    }
+
+    @Test
+    public void testMalformedQ() {
+        // A malformed q-value is ignored, the range keeps the default q=1.
+        assertEquals(locales("en", "fr"), parse("en;q=abc, fr;q=0.5"));
+        assertEquals(locales("en", "fr"), parse("en;q=, fr;q=0.5"));
+        assertEquals(locales("de", "en"), parse("en;q=0.5, de;q=2"));
+        assertEquals(locales("de", "en"), parse("en;q=0.5, de;q=1.5"));
+        assertEquals(locales("de", "en"), parse("en;q=0.4, de;q=.5"));
+    }
+
+    @Test
+    public void testWhitespace() {
+        assertEquals(locales("fr", "en-US"), parse("  en-US ;  q=0.5 ,\tfr  "));
+        assertEquals(locales("en", "fr"), parse("en,fr"));
+    }
+
+    @Test
+    public void testDuplicates() {
+        assertEquals(locales("en", "fr"), parse("en;q=0.2, fr;q=0.5, en"));
+        assertEquals(locales("en", "fr"), parse("en, fr;q=0.5, en;q=0.1"));
+        assertEquals(locales("en"), parse("en, en"));
+    }
+
+    @Test
+    public void testInvalidTag() {
+        assertEquals(locales("en"), parse("1234, en;q=0.5"));
+        assertEquals(locales("en"), parse(";q=1, en"));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+public class ActionDispatcherTest {
+    private final List<String> calls = new ArrayList<>();
+
+    private static Get get(String url, int order) {
+        return new Get() {
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return Get.class;
+            }
+
+            @Override
+            public String url() {
+                return url;
+            }
+
+            @Override
+            public String permission() {
+                return "";
+            }
+
+            @Override
+            public int order() {
+                return order;
+            }
+
+            @Override
+            public boolean cached() {
+                return false;
+            }
+        };
+    }
+
+    private Action add(ActionDispatcher dispatcher, String url, int order) {
+        Action action = new Action((Action.Invoker) (ctx, args) -> calls.add(url + " " + String.join(",", args)));
+        action.decorate(null, ActionDispatcherTest.class, url, "", get(url, order));
+        dispatcher.add(action, HttpMethod.GET);
+        return action;
+    }
+
+    private Action add(ActionDispatcher dispatcher, String url) {
+        return add(dispatcher, url, -1);
+    }
+
+    /**
+     * Return a proxy where methods that return the proxy type return the proxy itself, and other methods
+     * return null or zero.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            Object ret = answer.invoke(method.getName(), args);
+            if (ret != null) {
+                return ret;
+            }
+            Class<?> rt = method.getReturnType();
+            if (rt.isInstance(proxy)) {
+                return proxy;
+            } else if (rt == boolean.class) {
+                return false;
+            } else if (rt == int.class) {
+                return 0;
+            } else if (rt == long.class) {
+                return 0L;
+            }
+            return null;
+        });
+    }
+
+    private interface Answer {
+        Object invoke(String name, Object[] args);
+    }
+
+    private String dispatch(ActionDispatcher dispatcher, HttpMethod method, String path) {
+        calls.clear();
+        MultiMap params = MultiMap.caseInsensitiveMultiMap();
+        HttpServerResponse response = proxy(HttpServerResponse.class, (name, args) -> null);
+        HttpServerRequest request = proxy(HttpServerRequest.class, (name, args) -> {
+            switch (name) {
+            case "method":
+                return method;
+            case "params":
+                return params;
+            case "path":
+                return path;
+            default:
+                return null;
+            }
+        });
+        RoutingContext ctx = proxy(RoutingContext.class, (name, args) -> {
+            switch (name) {
+            case "normalisedPath":
+                return path;
+            case "request":
+                return request;
+            case "response":
+                return response;
+            case "next":
+                calls.add("next");
+                return null;
+            case "fail":
+                calls.add("fail " + args[0]);
+                return null;
+            default:
+                return null;
+            }
+        });
+        dispatcher.handle(ctx);
+        assertEquals(1, calls.size());
+        return calls.get(0);
+    }
+
+    private String dispatch(ActionDispatcher dispatcher, String path) {
+        return dispatch(dispatcher, HttpMethod.GET, path);
+    }
+
+    @Test
+    public void testSupports() {
+        assertTrue(ActionDispatcher.supports("/user"));
+        assertTrue(ActionDispatcher.supports("/user/:id"));
+        assertTrue(ActionDispatcher.supports("/user/:id/:op"));
+        assertFalse(ActionDispatcher.supports("user"));
+        assertFalse(ActionDispatcher.supports("/static/*"));
+        assertFalse(ActionDispatcher.supports("/user/:id.json"));
+        assertFalse(ActionDispatcher.supports("/user/x:id"));
+        assertFalse(ActionDispatcher.supports("/file/:name.:ext"));
+    }
+
+    @Test
+    public void testDispatch() {
+        ActionDispatcher d = new ActionDispatcher();
+        add(d, "/");
+        add(d, "/user");
+        add(d, "/user/:id");
+        add(d, "/user/:id/:op");
+        assertEquals("/ ", dispatch(d, "/"));
+        assertEquals("/user ", dispatch(d, "/user"));
+        assertEquals("/user ", dispatch(d, "/user/"));
+        assertEquals("/user/:id 42", dispatch(d, "/user/42"));
+        assertEquals("/user/:id 42", dispatch(d, "/user/42/"));
+        assertEquals("/user/:id/:op 42,edit", dispatch(d, "/user/42/edit"));
+        assertEquals("/user/:id/:op a/b,edit", dispatch(d, "/user/a%2Fb/edit"));
+        assertEquals("next", dispatch(d, "/user/42/edit/x"));
+        assertEquals("next", dispatch(d, "/other"));
+    }
+
+    @Test
+    public void testTemplateMismatch() {
+        // Not accepted by supports(), but when added the action must not be invoked without its parameter.
+        ActionDispatcher d = new ActionDispatcher();
+        add(d, "/x/:id.json");
+        assertEquals("next", dispatch(d, "/x/abc"));
+        assertEquals("/x/:id.json 42", dispatch(d, "/x/42.json"));
+    }
+
+    @Test
+    public void testMethod() {
+        ActionDispatcher d = new ActionDispatcher();
+        add(d, "/user");
+        assertEquals("/user ", dispatch(d, HttpMethod.HEAD, "/user"));
+        assertEquals("next", dispatch(d, HttpMethod.POST, "/user"));
+    }
+
+    @Test
+    public void testOrder() {
+        // Like the router, the first action added wins, unless an order is given.
+        ActionDispatcher d = new ActionDispatcher();
+        add(d, "/user/:id");
+        add(d, "/user/new");
+        assertEquals("/user/:id new", dispatch(d, "/user/new"));
+
+        d = new ActionDispatcher();
+        add(d, "/user/:id", 2);
+        add(d, "/user/new", 1);
+        assertEquals("/user/new ", dispatch(d, "/user/new"));
+        assertEquals("/user/:id 42", dispatch(d, "/user/42"));
+    }
+
+    @Test
+    public void testManyActions() {
+        for (int n : new int[] { 10, 100, 1000 }) {
+            ActionDispatcher d = new ActionDispatcher();
+            for (int i = 0; i < n; i++) {
+                add(d, "/r" + i + "/:id");
+                add(d, "/r" + i + "/:id/edit");
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals("/r" + i + "/:id " + i, dispatch(d, "/r" + i + "/" + i));
+                assertEquals("/r" + i + "/:id/edit " + i, dispatch(d, "/r" + i + "/" + i + "/edit"));
+            }
+            assertEquals("next", dispatch(d, "/r" + n + "/1"));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+public class ActionMetricsTest {
+    private final MetricRegistry registry = new MetricRegistry();
+    private final ActionMetrics metrics = new ActionMetrics(registry, "test");
+    private final List<Handler<Void>> bodyEndHandlers = new ArrayList<>();
+    private final List<Handler<Void>> closeHandlers = new ArrayList<>();
+    private int status = 200;
+
+    @SuppressWarnings("unchecked")
+    private RoutingContext start() {
+        HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { HttpServerResponse.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "closeHandler":
+                        closeHandlers.add((Handler<Void>) args[0]);
+                        return proxy;
+                    case "getStatusCode":
+                        return status;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        RoutingContext ctx = (RoutingContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RoutingContext.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "response":
+                        return response;
+                    case "addBodyEndHandler":
+                        bodyEndHandlers.add((Handler<Void>) args[0]);
+                        return bodyEndHandlers.size();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        metrics.start(ctx);
+        return ctx;
+    }
+
+    private long inFlight() {
+        return registry.counter(Metrics.PREFIX + "action.test.inFlight").getCount();
+    }
+
+    private long latencyCount() {
+        return registry.timer(Metrics.PREFIX + "action.test.latency").getCount();
+    }
+
+    private static void fire(List<Handler<Void>> handlers) {
+        for (Handler<Void> h : handlers) {
+            h.handle(null);
+        }
+    }
+
+    @Test
+    public void testCompleted() {
+        start();
+        assertEquals(1, inFlight());
+        status = 404;
+        fire(bodyEndHandlers);
+        assertEquals(0, inFlight());
+        assertEquals(1, latencyCount());
+        assertEquals(1, registry.meter(Metrics.PREFIX + "action.test.4xx").getCount());
+        // The connection is closed after the response, the request is only released once.
+        fire(closeHandlers);
+        assertEquals(0, inFlight());
+    }
+
+    @Test
+    public void testAborted() {
+        start();
+        start();
+        assertEquals(2, inFlight());
+        // The client goes away before the response is ended.
+        fire(closeHandlers);
+        assertEquals(0, inFlight());
+        assertEquals(0, latencyCount());
+        fire(bodyEndHandlers);
+        assertEquals(0, inFlight());
+        assertEquals(0, latencyCount());
+    }
+}
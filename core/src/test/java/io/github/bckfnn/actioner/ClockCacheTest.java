@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ClockCacheTest {
+    @Test
+    public void testGetPut() {
+        ClockCache<String, String> cache = new ClockCache<>(4);
+        assertNull(cache.get("a"));
+        assertEquals("1", cache.put("a", "1"));
+        assertEquals("1", cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testFirstPutWins() {
+        ClockCache<String, String> cache = new ClockCache<>(4);
+        cache.put("a", "1");
+        assertEquals("1", cache.put("a", "2"));
+        assertEquals("1", cache.get("a"));
+    }
+
+    @Test
+    public void testEviction() {
+        ClockCache<String, String> cache = new ClockCache<>(3);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        assertEquals(3, cache.size());
+        assertEquals("v9", cache.get("k9"));
+        assertNull(cache.get("k0"));
+    }
+
+    @Test
+    public void testSecondChance() {
+        ClockCache<String, String> cache = new ClockCache<>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    public void testSecondChanceForAll() {
+        ClockCache<String, String> cache = new ClockCache<>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.get("b");
+        cache.put("c", "3");
+        assertEquals(2, cache.size());
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    public void testRemove() {
+        ClockCache<String, String> cache = new ClockCache<>(1);
+        cache.put("a", "1");
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        cache.put("a", "2");
+        assertEquals("2", cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testCapacityOne() {
+        ClockCache<String, String> cache = new ClockCache<>(1);
+        cache.put("a", "1");
+        cache.get("a");
+        cache.put("b", "2");
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() {
+        new ClockCache<String, String>(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCapacity() {
+        new ClockCache<String, String>(-1);
+    }
+}
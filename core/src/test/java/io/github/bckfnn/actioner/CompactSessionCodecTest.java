@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.handler.impl.UserHolder;
+import io.vertx.ext.web.sstore.impl.SessionImpl;
+
+public class CompactSessionCodecTest {
+    private static SessionImpl session(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        Buffer header = Buffer.buffer();
+        header.appendInt(bytes.length).appendBytes(bytes).appendLong(30 * 60 * 1000L).appendLong(1000L).appendInt(0).appendInt(0);
+        SessionImpl session = new SessionImpl();
+        session.readFromBuffer(0, header);
+        session.put("name", "value");
+        session.put("count", 42L);
+        UserHolder holder = new UserHolder();
+        holder.user = new DbUser(principal(), (PermissionIndex) null);
+        session.put("__vertx.userHolder", holder);
+        return session;
+    }
+
+    private static JsonObject principal() {
+        return new JsonObject().put("username", "finn").put("groups", new JsonArray().add("admin").add("user"));
+    }
+
+    private static void check(SessionImpl session) {
+        assertEquals("s1", session.id());
+        assertEquals(30 * 60 * 1000L, session.timeout());
+        assertEquals("value", session.get("name"));
+        assertEquals(42L, (long) session.<Long>get("count"));
+        UserHolder holder = session.get("__vertx.userHolder");
+        assertTrue(holder.user instanceof DbUser);
+        assertEquals(principal(), holder.user.principal());
+    }
+
+    @Test
+    public void testCompact() {
+        CompactSessionCodec codec = new CompactSessionCodec();
+        byte[] data = codec.encode(session("s1"));
+        assertEquals(CompactSessionCodec.MAGIC, data[0]);
+        // The user is written by the codec, not as a serialized class.
+        assertFalse(new String(data, StandardCharsets.ISO_8859_1).contains(DbUser.class.getName()));
+        check(codec.decode(data));
+    }
+
+    @Test
+    public void testVertxFormat() {
+        byte[] data = new VertxSessionCodec().encode(session("s1"));
+        check(new CompactSessionCodec().decode(data));
+        check(new VertxSessionCodec().decode(data));
+    }
+
+    @Test
+    public void testDbUserVertxFormat() {
+        Buffer buf = Buffer.buffer();
+        principal().writeToBuffer(buf);
+        DbUser user = new DbUser();
+        assertEquals(buf.length(), user.readFromBuffer(0, buf));
+        assertEquals(principal(), user.principal());
+
+        Buffer written = Buffer.buffer();
+        user.writeToBuffer(written);
+        assertEquals(buf.length(), written.length());
+    }
+
+    @Test
+    public void testDbUserCompactFormat() {
+        Buffer buf = Buffer.buffer();
+        buf.appendInt(-1);
+        new CompactFormat.Writer(buf).json(principal());
+        DbUser user = new DbUser();
+        assertEquals(buf.length(), user.readFromBuffer(0, buf));
+        assertEquals(principal(), user.principal());
+    }
+
+    @Test
+    public void testSize() {
+        // A logged in session, where the principal dominates the size.
+        SessionImpl session = session("s1");
+        UserHolder holder = session.get("__vertx.userHolder");
+        holder.user = new DbUser(new JsonObject()
+                .put("username", "finn")
+                .put("id", 42L)
+                .put("name", "Finn Bock")
+                .put("email", "finn@example.com")
+                .put("groups", new JsonArray().add("admin").add("user").add("editor")), (PermissionIndex) null);
+        int vertx = new VertxSessionCodec().encode(session).length;
+        int compact = new CompactSessionCodec().encode(session).length;
+        assertTrue("compact " + compact + " bytes, vertx " + vertx + " bytes", compact * 2 < vertx);
+    }
+}
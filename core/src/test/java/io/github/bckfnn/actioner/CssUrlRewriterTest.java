@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class CssUrlRewriterTest {
+    private static final String FILE = "/webjars/lib/1.0/css/lib.css";
+    private static final String PREFIX = FILE + "/../";
+
+    private static String rewrite(String css) {
+        return AssetBundler.filterUrl(FILE, css);
+    }
+
+    @Test
+    public void testQuoted() {
+        assertEquals("a{background:url(\"" + PREFIX + "img/a.png\")}", rewrite("a{background:url(\"img/a.png\")}"));
+        assertEquals("a{background:url(\"" + PREFIX + "img/a.png\")}", rewrite("a{background:url('img/a.png')}"));
+    }
+
+    @Test
+    public void testUnquoted() {
+        assertEquals("a{background:url(\"" + PREFIX + "img/a.png\")}", rewrite("a{background:url(img/a.png)}"));
+        assertEquals("a{background:url(\"" + PREFIX + "../fonts/f.woff?v=1\")}", rewrite("a{background:url( ../fonts/f.woff?v=1 )}"));
+    }
+
+    @Test
+    public void testSeveral() {
+        assertEquals("@font-face{src:url(\"" + PREFIX + "f.eot\"),url(\"" + PREFIX + "f.woff\") format('woff')}",
+                rewrite("@font-face{src:url(f.eot),url('f.woff') format('woff')}"));
+    }
+
+    @Test
+    public void testImport() {
+        assertEquals("@import \"" + PREFIX + "base.css\";", rewrite("@import \"base.css\";"));
+        assertEquals("@import '" + PREFIX + "base.css';", rewrite("@import 'base.css';"));
+        assertEquals("@import url(\"" + PREFIX + "base.css\");", rewrite("@import url(base.css);"));
+    }
+
+    @Test
+    public void testQuoteInUrl() {
+        assertEquals("a{background:url(\"" + PREFIX + "a\\\"b.png\")}", rewrite("a{background:url('a\"b.png')}"));
+        assertEquals("a{background:url(\"" + PREFIX + "a\\\"b.png\")}", rewrite("a{background:url(a\"b.png)}"));
+        assertEquals("a{background:url(\"" + PREFIX + "a\\\"b.png\")}", rewrite("a{background:url(\"a\\\"b.png\")}"));
+        assertEquals("a{background:url(\"" + PREFIX + "it\\'s.png\")}", rewrite("a{background:url('it\\'s.png')}"));
+        assertEquals("@import '" + PREFIX + "a\"b.css';", rewrite("@import 'a\"b.css';"));
+    }
+
+    @Test
+    public void testQuoteInFile() {
+        assertEquals("@import '/it\\'s/a.css/../b.css';", AssetBundler.filterUrl("/it's/a.css", "@import 'b.css';"));
+        assertEquals("a{b:url(\"/a\\\"b/a.css/../c.png\")}", AssetBundler.filterUrl("/a\"b/a.css", "a{b:url(c.png)}"));
+    }
+
+    @Test
+    public void testData() {
+        String data = "data:image/png;base64,iVBORw0KGgo=";
+        assertEquals("a{background:url(\"" + data + "\")}", rewrite("a{background:url(" + data + ")}"));
+        assertEquals("a{background:url(\"" + data + "\")}", rewrite("a{background:url('" + data + "')}"));
+    }
+
+    @Test
+    public void testAbsolute() {
+        assertEquals("a{background:url(\"/img/a.png\")}", rewrite("a{background:url(/img/a.png)}"));
+        assertEquals("a{background:url(\"//cdn.example.com/a.png\")}", rewrite("a{background:url(//cdn.example.com/a.png)}"));
+        assertEquals("a{background:url(\"https://example.com/a.png\")}", rewrite("a{background:url('https://example.com/a.png')}"));
+        assertEquals("a{filter:url(\"#blur\")}", rewrite("a{filter:url(#blur)}"));
+        assertEquals("@import \"http://example.com/base.css\";", rewrite("@import \"http://example.com/base.css\";"));
+    }
+
+    @Test
+    public void testNotUrl() {
+        String css = "a{background-image:myurl(x);content:'url'}";
+        assertEquals(css, rewrite(css));
+        assertEquals("a{b:url()}", rewrite("a{b:url()}"));
+    }
+
+    @Test
+    public void testBom() {
+        byte[] css = "\uFEFFa{background:url(a.png)}".getBytes(StandardCharsets.UTF_8);
+        String out = new String(CssUrlRewriter.rewrite(FILE, css), StandardCharsets.UTF_8);
+        assertEquals("a{background:url(\"" + PREFIX + "a.png\")}", out);
+    }
+
+    @Test
+    public void testNonAscii() {
+        String css = "a:before{content:'æøå €'}b{background:url(æbler/ø.png)}";
+        byte[] out = CssUrlRewriter.rewrite(FILE, css.getBytes(StandardCharsets.UTF_8));
+        String expected = "a:before{content:'æøå €'}b{background:url(\"" + PREFIX + "æbler/ø.png\")}";
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class LocaleNegotiatorTest {
+    private static List<Locale> locales(String... tags) {
+        List<Locale> ret = new ArrayList<>();
+        for (String tag : tags) {
+            ret.add(Locale.forLanguageTag(tag));
+        }
+        return ret;
+    }
+
+    private static Locale locale(String tag) {
+        return Locale.forLanguageTag(tag);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoneSupported() {
+        new LocaleNegotiator(locales());
+    }
+
+    @Test
+    public void testLookup() {
+        LocaleNegotiator n = new LocaleNegotiator(locales("en", "de", "de-CH", "fr"));
+        assertEquals(locale("de-CH"), n.lookup(locales("de-CH"), null));
+        assertEquals(locale("de-CH"), n.lookup(locales("de-ch-1996"), null));
+        assertEquals(locale("de-CH"), n.lookup(locales("de-CH-x-phonebk"), null));
+        assertEquals(locale("de"), n.lookup(locales("de-AT"), null));
+        assertEquals(locale("fr"), n.lookup(locales("it", "fr-CA", "de"), null));
+        // The second lookup is answered from the cache.
+        assertEquals(locale("fr"), n.lookup(locales("it", "fr-CA", "de"), null));
+    }
+
+    @Test
+    public void testFallback() {
+        LocaleNegotiator n = new LocaleNegotiator(locales("en", "de"));
+        assertEquals(locale("de"), n.lookup(locales("it"), locale("de-AT")));
+        assertEquals(locale("en"), n.lookup(locales("it"), locale("sv")));
+        assertEquals(locale("en"), n.lookup(locales("it"), null));
+        assertEquals(locale("en"), n.lookup(locales(), null));
+    }
+
+    @Test
+    public void testFilter() {
+        LocaleNegotiator n = new LocaleNegotiator(locales("en", "de-CH", "de", "fr"));
+        assertEquals(locales("de-CH", "de", "fr"), n.filter(locales("de", "fr")));
+        assertEquals(locales("fr", "de-CH", "de"), n.filter(locales("fr", "de")));
+        assertEquals(locales("de-CH", "de"), n.filter(locales("de-CH", "de")));
+        assertEquals(locales("en"), n.filter(locales("en", "en-GB")));
+        assertEquals(locales(), n.filter(locales("it")));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+public class MetricsTest {
+    @Test
+    public void testRegister() {
+        MetricRegistry registry = new MetricRegistry();
+        Counter counter = new Counter();
+        assertSame(counter, Metrics.register(registry, "test.count", counter));
+        assertSame(counter, registry.getMetrics().get(Metrics.PREFIX + "test.count"));
+    }
+
+    @Test
+    public void testReuse() {
+        MetricRegistry registry = new MetricRegistry();
+        Counter first = Metrics.register(registry, "test.count", new Counter());
+        Counter second = Metrics.register(registry, "test.count", new Counter());
+        assertSame(first, second);
+        assertSame(first, registry.getMetrics().get(Metrics.PREFIX + "test.count"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOtherKind() {
+        MetricRegistry registry = new MetricRegistry();
+        Metrics.register(registry, "test.count", new Counter());
+        Metrics.register(registry, "test.count", (Gauge<Integer>) () -> 1);
+    }
+
+    @Test
+    public void testSharedCacheCounters() {
+        MetricRegistry registry = new MetricRegistry();
+        ClockCache<String, String> a = new ClockCache<>(4);
+        ClockCache<String, String> b = new ClockCache<>(4);
+        a.registerMetrics(registry, "test.cache");
+        b.registerMetrics(registry, "test.cache");
+        a.get("x");
+        b.get("x");
+        b.put("x", "1");
+        b.get("x");
+        Counter misses = (Counter) registry.getMetrics().get(Metrics.PREFIX + "test.cache.misses");
+        Counter hits = (Counter) registry.getMetrics().get(Metrics.PREFIX + "test.cache.hits");
+        assertEquals(2, misses.getCount());
+        assertEquals(1, hits.getCount());
+    }
+}
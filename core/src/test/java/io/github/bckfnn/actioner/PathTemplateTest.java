@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PathTemplateTest {
+    private static String[] match(String template, String path) {
+        PathTemplate t = new PathTemplate(template);
+        String[] args = new String[t.names().size()];
+        return t.match(path, args) ? args : null;
+    }
+
+    @Test
+    public void testNames() {
+        assertEquals(Arrays.asList("id", "name"), new PathTemplate("/user/:id/:name").names());
+        assertEquals(Arrays.asList(), new PathTemplate("/user").names());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateName() {
+        new PathTemplate("/user/:id/:id");
+    }
+
+    @Test
+    public void testLiteral() {
+        assertArrayEquals(new String[0], match("/user", "/user"));
+        assertArrayEquals(new String[0], match("/user", "/user/"));
+        assertNull(match("/user", "/users"));
+        assertNull(match("/user", "/user/1"));
+    }
+
+    @Test
+    public void testParams() {
+        assertArrayEquals(new String[] { "42" }, match("/user/:id", "/user/42"));
+        assertArrayEquals(new String[] { "42", "edit" }, match("/user/:id/:op", "/user/42/edit"));
+        assertNull(match("/user/:id", "/user/"));
+        assertNull(match("/user/:id", "/user/42/edit"));
+        assertNull(match("/user/:id/edit", "/user/42/show"));
+    }
+
+    @Test
+    public void testTrailingSlash() {
+        assertArrayEquals(new String[] { "42" }, match("/user/:id", "/user/42/"));
+        assertArrayEquals(new String[] { "42" }, match("/user/:id/edit", "/user/42/edit/"));
+        assertNull(match("/user/:id", "/user/42//"));
+    }
+
+    @Test
+    public void testMultiParamSegment() {
+        assertArrayEquals(new String[] { "report", "pdf" }, match("/file/:name.:ext", "/file/report.pdf"));
+        // The literal after a parameter is matched at its last occurrence in the segment.
+        assertArrayEquals(new String[] { "report.v2", "pdf" }, match("/file/:name.:ext", "/file/report.v2.pdf"));
+        assertArrayEquals(new String[] { "a", "b" }, match("/:x-:y/view", "/a-b/view"));
+        assertNull(match("/file/:name.:ext", "/file/report"));
+        assertNull(match("/file/:name.:ext", "/file/.pdf"));
+        assertNull(match("/file/:name.:ext", "/file/report."));
+    }
+
+    @Test
+    public void testDecode() {
+        assertArrayEquals(new String[] { "a/b" }, match("/file/:name", "/file/a%2Fb"));
+        assertArrayEquals(new String[] { "a b" }, match("/file/:name", "/file/a%20b"));
+        assertArrayEquals(new String[] { "a+b" }, match("/file/:name", "/file/a+b"));
+        assertArrayEquals(new String[] { "a+b c" }, match("/file/:name", "/file/a+b%20c"));
+        assertArrayEquals(new String[] { "æøå" }, match("/file/:name", "/file/%C3%A6%C3%B8%C3%A5"));
+        // Malformed escapes are left as they are.
+        assertArrayEquals(new String[] { "a%2" }, match("/file/:name", "/file/a%2"));
+    }
+
+    @Test
+    public void testLink() {
+        PathTemplate t = new PathTemplate("/file/:name.:ext");
+        assertEquals("/file/report.pdf", t.link("report", "pdf"));
+        assertEquals("/file/a%2Fb%20c%2Bd.txt", t.link("a/b c+d", "txt"));
+        assertEquals("/file/%C3%A6.txt", t.link("æ", "txt"));
+        String[] args = new String[2];
+        assertTrue(t.match(t.link("a/b c+d", "txt"), args));
+        assertArrayEquals(new String[] { "a/b c+d", "txt" }, args);
+        assertFalse(t.match("/file", args));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLinkValues() {
+        new PathTemplate("/user/:id").link();
+    }
+
+    @Test
+    public void testParamSegment() {
+        assertTrue(PathTemplate.isParamSegment(":id"));
+        assertTrue(PathTemplate.isParamSegment(":user_id2"));
+        assertFalse(PathTemplate.isParamSegment(":id.json"));
+        assertFalse(PathTemplate.isParamSegment("x:id"));
+        assertFalse(PathTemplate.isParamSegment(":"));
+        assertFalse(PathTemplate.isParamSegment("id"));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+public class PrincipalCacheTest {
+    private int loads;
+
+    private void load(String username, String password, Handler<AsyncResult<JsonObject>> handler) {
+        loads++;
+        if (password.equals("secret")) {
+            handler.handle(Future.succeededFuture(new JsonObject().put("username", username)));
+        } else {
+            handler.handle(Future.failedFuture("invalid password"));
+        }
+    }
+
+    private List<AsyncResult<JsonObject>> results = new ArrayList<>();
+
+    private void get(PrincipalCache cache, String password, PrincipalCache.Loader loader) {
+        cache.get("finn", password, loader, results::add);
+    }
+
+    @Test
+    public void testCached() {
+        PrincipalCache cache = new PrincipalCache(10, 60000, 60000);
+        get(cache, "secret", this::load);
+        get(cache, "secret", this::load);
+        assertEquals(1, loads);
+        assertTrue(results.get(1).succeeded());
+        assertEquals("finn", results.get(1).result().getString("username"));
+    }
+
+    @Test
+    public void testWrongPasswordKeepsPrincipal() {
+        PrincipalCache cache = new PrincipalCache(10, 60000, 60000);
+        get(cache, "secret", this::load);
+        get(cache, "wrong", this::load);
+        get(cache, "wrong", this::load);
+        get(cache, "secret", this::load);
+        assertEquals(2, loads);
+        assertTrue(results.get(1).failed());
+        assertTrue(results.get(2).failed());
+        assertTrue(results.get(3).succeeded());
+    }
+
+    @Test
+    public void testCoalesced() {
+        PrincipalCache cache = new PrincipalCache(10, 60000, 60000);
+        List<Handler<AsyncResult<JsonObject>>> loading = new ArrayList<>();
+        PrincipalCache.Loader loader = (u, p, h) -> {
+            loads++;
+            loading.add(h);
+        };
+        get(cache, "secret", loader);
+        get(cache, "secret", loader);
+        assertEquals(1, loads);
+        assertEquals(0, results.size());
+        loading.get(0).handle(Future.succeededFuture(new JsonObject().put("username", "finn")));
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).succeeded());
+        assertTrue(results.get(1).succeeded());
+    }
+
+    @Test
+    public void testLoaderThrows() {
+        PrincipalCache cache = new PrincipalCache(10, 60000, 60000);
+        PrincipalCache.Loader loader = (u, p, h) -> {
+            loads++;
+            throw new IllegalStateException("no database");
+        };
+        get(cache, "secret", loader);
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).failed());
+
+        // The failed load is not pending, so the next login loads again.
+        get(cache, "secret", this::load);
+        assertEquals(2, loads);
+        assertTrue(results.get(1).succeeded());
+    }
+}
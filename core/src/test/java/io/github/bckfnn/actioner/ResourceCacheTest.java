@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ResourceCacheTest {
+    private static StaticContent content() throws IOException {
+        File file = File.createTempFile("resource", ".js");
+        file.deleteOnExit();
+        return new StaticContent(file, "application/javascript");
+    }
+
+    @Test
+    public void testFileEntriesAreBounded() throws IOException {
+        ResourceCache cache = new ResourceCache(3 * ResourceCache.ENTRY_WEIGHT, "fifo", false);
+        for (int i = 0; i < 10; i++) {
+            cache.put("f" + i, content());
+        }
+        assertEquals(3, cache.entries());
+        assertEquals(3 * ResourceCache.ENTRY_WEIGHT, cache.size());
+    }
+
+    @Test
+    public void testFifo() throws IOException {
+        ResourceCache cache = new ResourceCache(2 * ResourceCache.ENTRY_WEIGHT, "fifo", false);
+        cache.put("a", content());
+        cache.put("b", content());
+        assertNotNull(cache.get("a"));
+        cache.put("c", content());
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void testSecondChance() throws IOException {
+        ResourceCache cache = new ResourceCache(2 * ResourceCache.ENTRY_WEIGHT, "lru", false);
+        cache.put("a", content());
+        cache.put("b", content());
+        assertNotNull(cache.get("a"));
+        cache.put("c", content());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void testNewEntryIsKept() throws IOException {
+        ResourceCache cache = new ResourceCache(2 * ResourceCache.ENTRY_WEIGHT, "lru", false);
+        cache.put("a", content());
+        cache.put("b", content());
+        cache.get("a");
+        cache.get("b");
+        cache.put("c", content());
+        assertNotNull(cache.get("c"));
+        assertEquals(2, cache.entries());
+    }
+
+    @Test
+    public void testFirstPutWins() throws IOException {
+        ResourceCache cache = new ResourceCache(2 * ResourceCache.ENTRY_WEIGHT, "lru", false);
+        StaticContent first = content();
+        cache.put("a", first);
+        cache.put("a", content());
+        assertSame(first, cache.get("a"));
+        assertEquals(ResourceCache.ENTRY_WEIGHT, cache.size());
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        ResourceCache cache = new ResourceCache(2 * ResourceCache.ENTRY_WEIGHT, "lru", false);
+        cache.put("a", content());
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.entries());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPolicy() {
+        new ResourceCache(1024, "random", false);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SessionJournalTest {
+    private static SessionJournal journal(File dir) {
+        return new SessionJournal(new File(dir, "sessions").getPath(), SessionJournal.Fsync.NEVER, 0, 64 * 1024 * 1024);
+    }
+
+    private static Map<String, String> replay(SessionJournal journal) throws IOException {
+        Map<String, String> sessions = new LinkedHashMap<>();
+        SessionSnapshot snapshot = journal.openSnapshot();
+        if (snapshot != null) {
+            for (Map.Entry<String, SessionSnapshot.Entry> e : snapshot.index().entrySet()) {
+                sessions.put(e.getKey(), new String(snapshot.data(e.getValue()), StandardCharsets.UTF_8));
+            }
+        }
+        journal.replay(new SessionJournal.Replay() {
+            @Override
+            public void put(String id, long expires, byte[] data) {
+                sessions.put(id, new String(data, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void delete(String id) {
+                sessions.remove(id);
+            }
+
+            @Override
+            public void clear() {
+                sessions.clear();
+            }
+        });
+        return sessions;
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        long expires = System.currentTimeMillis() + 60000;
+        SessionJournal journal = journal(dir);
+        journal.open();
+        journal.put("a", expires, "1".getBytes(StandardCharsets.UTF_8));
+        journal.put("b", expires, "2".getBytes(StandardCharsets.UTF_8));
+        journal.delete("a");
+        journal.close();
+
+        journal = journal(dir);
+        Map<String, String> sessions = replay(journal);
+        assertEquals(1, sessions.size());
+        assertArrayEquals("2".getBytes(StandardCharsets.UTF_8), sessions.get("b").getBytes(StandardCharsets.UTF_8));
+        journal.open();
+        journal.close();
+    }
+
+    @Test
+    public void testSecondOpenerRefused() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        SessionJournal first = journal(dir);
+        first.open();
+        SessionJournal second = journal(dir);
+        boolean refused = false;
+        try {
+            second.open();
+        } catch (IOException e) {
+            refused = true;
+        }
+        assertTrue(refused);
+
+        // The second journal is closed and drops its records.
+        second.put("x", System.currentTimeMillis() + 60000, new byte[1]);
+        first.close();
+
+        // The lock is released on close.
+        SessionJournal third = journal(dir);
+        third.open();
+        assertEquals(0, replay(third).size());
+        third.close();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writePut(DataOutputStream out, String id, long expires, String data) throws IOException {
+        out.write(1);
+        out.writeInt(bytes(id).length);
+        out.write(bytes(id));
+        out.writeLong(expires);
+        out.writeInt(bytes(data).length);
+        out.write(bytes(data));
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        long now = System.currentTimeMillis();
+        SessionJournal journal = journal(dir);
+        journal.open();
+        journal.put("a", now + 60000, bytes("1"));
+        journal.put("b", now + 60000, bytes("2"));
+        journal.put("c", now + 60000, bytes("3"));
+        journal.put("expired", now - 1, bytes("4"));
+        journal.delete("b");
+        journal.put("a", now + 60000, bytes("5"));
+        journal.compact();
+        journal.put("d", now + 60000, bytes("6"));
+        journal.delete("c");
+        journal.close();
+
+        // Close compacts, so all live sessions are in the snapshot and the journal is empty.
+        assertEquals(0, new File(dir, "sessions.journal").length());
+        journal = journal(dir);
+        SessionSnapshot snapshot = journal.openSnapshot();
+        assertNotNull(snapshot);
+        assertEquals(2, snapshot.index().size());
+        Map<String, String> sessions = replay(journal);
+        assertEquals(2, sessions.size());
+        assertEquals("5", sessions.get("a"));
+        assertEquals("6", sessions.get("d"));
+    }
+
+    @Test
+    public void testCompactSize() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        long expires = System.currentTimeMillis() + 60000;
+        SessionJournal journal = new SessionJournal(new File(dir, "sessions").getPath(), SessionJournal.Fsync.ALWAYS, 0, 256);
+        journal.open();
+        for (int i = 0; i < 100; i++) {
+            journal.put("s" + (i % 10), expires, bytes("v" + i));
+        }
+        journal.close();
+
+        Map<String, String> sessions = replay(journal(dir));
+        assertEquals(10, sessions.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("v" + (90 + i), sessions.get("s" + i));
+        }
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        long expires = System.currentTimeMillis() + 60000;
+        SessionJournal journal = journal(dir);
+        journal.open();
+        journal.put("a", expires, bytes("1"));
+        journal.clear();
+        journal.put("b", expires, bytes("2"));
+        journal.close();
+
+        Map<String, String> sessions = replay(journal(dir));
+        assertEquals(1, sessions.size());
+        assertEquals("2", sessions.get("b"));
+    }
+
+    @Test
+    public void testTruncatedRecord() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        long expires = System.currentTimeMillis() + 60000;
+        File file = new File(dir, "sessions.journal");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            writePut(out, "a", expires, "1");
+            writePut(out, "b", expires, "2");
+        }
+        long valid = file.length();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            // A put record cut off in the data, as after a crash.
+            out.write(1);
+            out.writeInt(1);
+            out.write('c');
+            out.writeLong(expires);
+            out.writeInt(10);
+            out.write(bytes("abc"));
+        }
+
+        SessionJournal journal = journal(dir);
+        Map<String, String> sessions = replay(journal);
+        assertEquals(2, sessions.size());
+        assertEquals("1", sessions.get("a"));
+        assertEquals("2", sessions.get("b"));
+
+        // Opening drops the truncated record, so new records follow the valid ones.
+        journal.open();
+        assertEquals(valid, file.length());
+        journal.put("c", expires, bytes("3"));
+        journal.close();
+
+        sessions = replay(journal(dir));
+        assertEquals(3, sessions.size());
+        assertEquals("3", sessions.get("c"));
+    }
+
+    @Test
+    public void testCorruptRecord() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        long expires = System.currentTimeMillis() + 60000;
+        File file = new File(dir, "sessions.journal");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            writePut(out, "a", expires, "1");
+            out.write(9);
+            writePut(out, "b", expires, "2");
+        }
+        // Records after an unknown record type are not trusted.
+        Map<String, String> sessions = replay(journal(dir));
+        assertEquals(1, sessions.size());
+        assertEquals("1", sessions.get("a"));
+    }
+}
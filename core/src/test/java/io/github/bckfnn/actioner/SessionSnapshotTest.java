@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SessionSnapshotTest {
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path path = Files.createTempDirectory("snapshot").resolve("sessions");
+        char[] longId = new char[100];
+        Arrays.fill(longId, 'x');
+        Map<String, SessionJournal.Record> live = new LinkedHashMap<>();
+        live.put("a", new SessionJournal.Record(1000, bytes("first")));
+        live.put("empty", new SessionJournal.Record(2000, new byte[0]));
+        live.put("æøå", new SessionJournal.Record(3000, bytes("third")));
+        live.put(new String(longId), new SessionJournal.Record(4000, bytes("fourth")));
+        SessionSnapshot.write(path, live);
+
+        assertTrue(SessionSnapshot.isSnapshot(path));
+        assertFalse(Files.exists(path.resolveSibling("sessions.tmp")));
+        SessionSnapshot snapshot = SessionSnapshot.open(path);
+        assertEquals(new ArrayList<>(live.keySet()), new ArrayList<>(snapshot.index().keySet()));
+        for (Map.Entry<String, SessionJournal.Record> e : live.entrySet()) {
+            SessionSnapshot.Entry entry = snapshot.index().get(e.getKey());
+            assertEquals(e.getValue().expires, entry.expires());
+            assertArrayEquals(e.getValue().data, snapshot.data(entry));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        Path path = Files.createTempDirectory("snapshot").resolve("sessions");
+        SessionSnapshot.write(path, new LinkedHashMap<>());
+        assertEquals(0, SessionSnapshot.open(path).index().size());
+    }
+
+    @Test
+    public void testReplace() throws IOException {
+        Path path = Files.createTempDirectory("snapshot").resolve("sessions");
+        Map<String, SessionJournal.Record> live = new LinkedHashMap<>();
+        live.put("a", new SessionJournal.Record(1000, bytes("1")));
+        SessionSnapshot.write(path, live);
+        SessionSnapshot old = SessionSnapshot.open(path);
+
+        live.put("b", new SessionJournal.Record(1000, bytes("2")));
+        SessionSnapshot.write(path, live);
+        assertEquals(2, SessionSnapshot.open(path).index().size());
+        // The mapping of the old snapshot is still readable after the file is replaced.
+        assertArrayEquals(bytes("1"), old.data(old.index().get("a")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotSnapshot() throws IOException {
+        Path path = Files.createTempDirectory("snapshot").resolve("sessions");
+        Files.write(path, bytes("not a snapshot"));
+        assertFalse(SessionSnapshot.isSnapshot(path));
+        SessionSnapshot.open(path);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        Path path = Files.createTempDirectory("snapshot").resolve("sessions");
+        Map<String, SessionJournal.Record> live = new LinkedHashMap<>();
+        live.put("a", new SessionJournal.Record(1000, bytes("session data")));
+        SessionSnapshot.write(path, live);
+        byte[] data = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(data, data.length - 4));
+        SessionSnapshot.open(path);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedIndex() throws IOException {
+        Path path = Files.createTempDirectory("snapshot").resolve("sessions");
+        Map<String, SessionJournal.Record> live = new LinkedHashMap<>();
+        live.put("a", new SessionJournal.Record(1000, bytes("session data")));
+        SessionSnapshot.write(path, live);
+        byte[] data = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(data, 12));
+        SessionSnapshot.open(path);
+    }
+}
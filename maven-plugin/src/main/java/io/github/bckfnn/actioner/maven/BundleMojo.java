@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Finn Bock
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.bckfnn.actioner.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.activation.MimetypesFileTypeMap;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import io.github.bckfnn.actioner.AssetBundler;
+import io.github.bckfnn.actioner.Compressor;
+import io.github.bckfnn.actioner.WebjarRegistry;
+
+/**
+ * Build the asset bundles from <code>assets.conf</code> into <code>META-INF/assets</code> of the project output,
+ * together with a manifest that the {@link io.github.bckfnn.actioner.AssetsHandler} uses instead of building
+ * the bundles at runtime. Css is minified, all bundles are fingerprinted and a gzip variant is written
+ * when compression is enabled in <code>webserver.assets.compression</code>.
+ */
+@Mojo(name = "bundle", defaultPhase = LifecyclePhase.PREPARE_PACKAGE, requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
+public class BundleMojo extends AbstractMojo {
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File outputDirectory;
+
+    @Parameter(property = "actioner.minify", defaultValue = "true")
+    private boolean minify;
+
+    @Parameter(property = "actioner.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping asset bundling");
+            return;
+        }
+        try (URLClassLoader loader = new URLClassLoader(classpath(), getClass().getClassLoader())) {
+            if (loader.getResource("assets.conf") == null) {
+                getLog().info("No assets.conf, skipping asset bundling");
+                return;
+            }
+            Config assets = ConfigFactory.parseResourcesAnySyntax(loader, "assets").resolve();
+            Config compression = ConfigFactory.load(loader).getConfig("webserver.assets.compression");
+            Compressor compressor = compression.getBoolean("enabled") ? new Compressor(compression) : null;
+            AssetBundler bundler = new AssetBundler(assets, loader, new WebjarRegistry(loader));
+
+            File folder = new File(outputDirectory, AssetBundler.FOLDER);
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new MojoExecutionException("Can not create " + folder);
+            }
+
+            Properties manifest = new Properties();
+            for (String target : bundler.bundles()) {
+                for (String type : bundler.types(target)) {
+                    String name = target + "." + type;
+                    byte[] data = bundler.make(target, type, false, new ArrayList<>());
+                    if (minify && type.equals("css")) {
+                        data = AssetBundler.minifyCss(new String(data, "UTF-8")).getBytes("UTF-8");
+                    }
+                    String file = AssetBundler.fingerprinted(name, AssetBundler.hash(data));
+                    Files.write(new File(folder, file).toPath(), data);
+
+                    if (compressor != null) {
+                        byte[] gzip = compressor.gzip(data, MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(name));
+                        if (gzip != null) {
+                            Files.write(new File(folder, file + ".gz").toPath(), gzip);
+                        }
+                    }
+                    manifest.setProperty(name, file);
+                    getLog().info("Bundled " + name + " as " + file + " (" + data.length + " bytes)");
+                }
+            }
+            try (OutputStream out = new FileOutputStream(new File(outputDirectory, AssetBundler.MANIFEST))) {
+                manifest.store(out, "actioner asset bundles");
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to build asset bundles", e);
+        }
+    }
+
+    private URL[] classpath() throws MojoExecutionException {
+        try {
+            List<String> elements = project.getRuntimeClasspathElements();
+            URL[] urls = new URL[elements.size()];
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = new File(elements.get(i)).toURI().toURL();
+            }
+            return urls;
+        } catch (DependencyResolutionRequiredException | IOException e) {
+            throw new MojoExecutionException("Failed to resolve the project classpath", e);
+        }
+    }
+}